@@ -25,14 +25,73 @@ import android.support.v4.util.ArrayMap;
 import java.util.Collection;
 
 /**
+ * Manages the child-views of a contentView.
  *
+ * The standard fields are bound to precomputed integer slots
+ * ({@link #SLOT_ICON}, {@link #SLOT_TITLE}, {@link #SLOT_TEXT}, {@link #SLOT_WHEN}),
+ * the current view of each slot is resolved once when the view is set, so that
+ * binding a notification is a plain array access. Any other name is kept in a map.
+ * The name based methods keep working for both.
  */
 public class ChildViewManager {
 
     private static final String TAG = "zemin.ChildViewManager";
     public static boolean DBG;
 
+    public static final int SLOT_ICON     = 0;
+    public static final int SLOT_TITLE    = 1;
+    public static final int SLOT_TEXT     = 2;
+    public static final int SLOT_WHEN     = 3;
+    public static final int SLOT_COUNT    = 4;
+
+    private static final String[] SLOT_NAMES = {
+        NotificationViewCallback.ICON,
+        NotificationViewCallback.TITLE,
+        NotificationViewCallback.TEXT,
+        NotificationViewCallback.WHEN,
+    };
+
+    /**
+     * Get the slot of a standard name.
+     *
+     * @param name
+     * @return int the slot, or -1 if it is not a standard name.
+     */
+    public static int getSlot(String name) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (SLOT_NAMES[i] == name) {
+                return i;
+            }
+        }
+        if (name != null) {
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                if (SLOT_NAMES[i].equals(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public void setView(int slot, View view) {
+        Holder holder = mSlots[slot];
+        if (holder == null) {
+            holder = new Holder(SLOT_NAMES[slot]);
+            mSlots[slot] = holder;
+        }
+        holder.set(view);
+    }
+
     public void setView(String name, View view) {
+        final int slot = getSlot(name);
+        if (slot != -1) {
+            setView(slot, view);
+            return;
+        }
+
+        if (mHolders == null) {
+            mHolders = new ArrayMap<String, Holder>();
+        }
         Holder holder = mHolders.get(name);
         if (holder == null && name != null) {
             holder = new Holder(name);
@@ -41,85 +100,176 @@ public class ChildViewManager {
         holder.set(view);
     }
 
+    public ViewWrapper getViewWrapper(int slot) {
+        Holder holder = mSlots[slot];
+        return holder != null ? holder.curr : null;
+    }
+
     public ViewWrapper getViewWrapper(String name) {
-        Holder holder = mHolders.get(name);
-        return holder != null ? holder.curr() : null;
+        final int slot = getSlot(name);
+        if (slot != -1) {
+            return getViewWrapper(slot);
+        }
+
+        Holder holder = mHolders != null ? mHolders.get(name) : null;
+        return holder != null ? holder.curr : null;
+    }
+
+    public void show(int slot) {
+        show(getViewWrapper(slot));
     }
 
     public void show(String name) {
-        getViewWrapper(name).show();
+        show(getViewWrapper(name));
+    }
+
+    public void hide(int slot) {
+        hide(getViewWrapper(slot));
     }
 
     public void hide(String name) {
-        getViewWrapper(name).hide();
+        hide(getViewWrapper(name));
+    }
+
+    public void setImageDrawable(int slot, Drawable drawable) {
+        setImageDrawable(getViewWrapper(slot), drawable, true);
+    }
+
+    public void setImageDrawable(int slot, Drawable drawable, boolean animate) {
+        setImageDrawable(getViewWrapper(slot), drawable, animate);
     }
 
     public void setImageDrawable(String name, Drawable drawable) {
-        setImageDrawable(name, drawable, true);
+        setImageDrawable(getViewWrapper(name), drawable, true);
     }
 
     public void setImageDrawable(String name, Drawable drawable, boolean animate) {
-        ViewWrapper v = getViewWrapper(name);
-        if (drawable != null) {
-            v.show();
-            v.setImageDrawable(drawable, animate);
-        } else {
-            v.hide();
-        }
+        setImageDrawable(getViewWrapper(name), drawable, animate);
+    }
+
+    public void setText(int slot, CharSequence text) {
+        setText(getViewWrapper(slot), text, true);
+    }
+
+    public void setText(int slot, CharSequence text, boolean animate) {
+        setText(getViewWrapper(slot), text, animate);
     }
 
     public void setText(String name, CharSequence text) {
-        setText(name, text, true);
+        setText(getViewWrapper(name), text, true);
     }
 
     public void setText(String name, CharSequence text, boolean animate) {
-        ViewWrapper v = getViewWrapper(name);
-        if (text != null) {
-            v.show();
-            v.setText(text, animate);
-        } else {
-            v.hide();
-        }
+        setText(getViewWrapper(name), text, animate);
+    }
+
+    public void setTextSize(int slot, int size) {
+        setTextSize(getViewWrapper(slot), size);
     }
 
     public void setTextSize(String name, int size) {
-        getViewWrapper(name).setTextSize(size);
+        setTextSize(getViewWrapper(name), size);
+    }
+
+    public void setTextColor(int slot, int color) {
+        setTextColor(getViewWrapper(slot), color);
     }
 
     public void setTextColor(String name, int color) {
-        getViewWrapper(name).setTextColor(color);
+        setTextColor(getViewWrapper(name), color);
     }
 
     public void clear() {
-        Collection<Holder> holders = mHolders.values();
-        for (Holder h : holders) {
-            h.clear();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (mSlots[i] != null) mSlots[i].clear();
+        }
+        if (mHolders != null) {
+            Collection<Holder> holders = mHolders.values();
+            for (Holder h : holders) {
+                h.clear();
+            }
         }
     }
 
     public void reset() {
-        Collection<Holder> holders = mHolders.values();
-        for (Holder h : holders) {
-            h.reset();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (mSlots[i] != null) mSlots[i].reset();
+        }
+        if (mHolders != null) {
+            Collection<Holder> holders = mHolders.values();
+            for (Holder h : holders) {
+                h.reset();
+            }
+        }
+    }
+
+    private static void show(ViewWrapper v) {
+        if (v != null) {
+            v.show();
         }
     }
 
-    private final ArrayMap<String, Holder> mHolders =
-        new ArrayMap<String, Holder>();
+    private static void hide(ViewWrapper v) {
+        if (v != null) {
+            v.hide();
+        }
+    }
+
+    private static void setImageDrawable(ViewWrapper v, Drawable drawable, boolean animate) {
+        if (v == null) {
+            return;
+        }
+        if (drawable != null) {
+            v.show();
+            v.setImageDrawable(drawable, animate);
+        } else {
+            v.hide();
+        }
+    }
+
+    private static void setText(ViewWrapper v, CharSequence text, boolean animate) {
+        if (v == null) {
+            return;
+        }
+        if (text != null) {
+            v.show();
+            v.setText(text, animate);
+        } else {
+            v.hide();
+        }
+    }
+
+    private static void setTextSize(ViewWrapper v, int size) {
+        if (v != null) {
+            v.setTextSize(size);
+        }
+    }
+
+    private static void setTextColor(ViewWrapper v, int color) {
+        if (v != null) {
+            v.setTextColor(color);
+        }
+    }
+
+    private final Holder[] mSlots = new Holder[SLOT_COUNT];
+    private ArrayMap<String, Holder> mHolders;
 
     private class Holder {
         final String name;
         ViewWrapper view;
         ViewSwitcherWrapper switcher;
+        ViewWrapper curr;
         Holder(String name) { this.name = name; }
 
-        ViewWrapper curr() {
+        // resolved once per layout, when the view is set or cleared.
+        void resolve() {
             if (switcher != null && switcher.hasView()) {
-                return switcher;
+                curr = switcher;
             } else if (view != null && view.hasView()) {
-                return view;
+                curr = view;
+            } else {
+                curr = null;
             }
-            return null;
         }
 
         void set(View v) {
@@ -134,15 +284,15 @@ public class ChildViewManager {
                 }
                 view.setView(v);
             }
+            resolve();
         }
 
         void clear() {
-            ViewWrapper curr = curr();
             if (curr != null) curr.clear();
+            resolve();
         }
 
         void reset() {
-            ViewWrapper curr = curr();
             if (curr != null) curr.reset();
         }
     }
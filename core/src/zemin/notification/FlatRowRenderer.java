@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Draws the standard fields of a notification on a canvas: icon, title, when,
+ * text and progress. A row of {@link NotificationBoard} drawn by it is a single
+ * view, instead of an inflated layout.
+ *
+ * The text layouts are taken from {@link TextLayoutCache}, where they are built
+ * on the thread of {@link NotificationHandler} once the row width is known. The
+ * icons are taken from {@link NotificationIconLoader}.
+ *
+ * The notifications with actions are not drawn, their rows fall back to the
+ * view made by {@link NotificationBoardCallback#makeRowView}.
+ *
+ * @see NotificationBoard#setFlatRowRenderer
+ */
+public class FlatRowRenderer {
+
+    private static final String TAG = "zemin.FlatRowRenderer";
+    public static boolean DBG;
+
+    // dp
+    public static final int PADDING = 10;
+    public static final int ICON_SIZE = 40;
+    public static final int WHEN_WIDTH = 60;
+    public static final int PROGRESS_HEIGHT = 4;
+    public static final int LINE_SPACING = 4;
+
+    private final Context mContext;
+    private final TextPaint mTitlePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mWhenPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mProgressPaint = new Paint();
+    private final Paint mProgressBackgroundPaint = new Paint();
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final SparseArray<Drawable> mIcons = new SparseArray<Drawable>();
+    private final Rect mRect = new Rect();
+    private final Rect mIconBounds = new Rect();
+    private final int mPadding;
+    private final int mIconSize;
+    private final int mWhenWidth;
+    private final int mProgressHeight;
+    private final int mLineSpacing;
+
+    private TextLayoutCache.Spec mTitleSpec;
+    private TextLayoutCache.Spec mTextSpec;
+    private int mWidth;
+
+    public FlatRowRenderer(Context context) {
+        mContext = context;
+        final float density = context.getResources().getDisplayMetrics().density;
+        final float scaledDensity = context.getResources().getDisplayMetrics().scaledDensity;
+        mPadding = (int) (PADDING * density + 0.5f);
+        mIconSize = (int) (ICON_SIZE * density + 0.5f);
+        mWhenWidth = (int) (WHEN_WIDTH * density + 0.5f);
+        mProgressHeight = (int) (PROGRESS_HEIGHT * density + 0.5f);
+        mLineSpacing = (int) (LINE_SPACING * density + 0.5f);
+
+        mTitlePaint.setTextSize(16 * scaledDensity);
+        mTitlePaint.setColor(Color.WHITE);
+        mTitlePaint.setFakeBoldText(true);
+        mTextPaint.setTextSize(14 * scaledDensity);
+        mTextPaint.setColor(0xffe0e0e0);
+        mWhenPaint.setTextSize(10 * scaledDensity);
+        mWhenPaint.setColor(0xffbdbdbd);
+        mWhenPaint.setTextAlign(Paint.Align.RIGHT);
+        mProgressPaint.setColor(0xff80cbc4);
+        mProgressBackgroundPaint.setColor(0x40ffffff);
+    }
+
+    /**
+     * The paint of the title. Changes, color included, are seen by the rows
+     * drawn afterwards.
+     *
+     * @return TextPaint
+     */
+    public TextPaint getTitlePaint() {
+        return mTitlePaint;
+    }
+
+    /**
+     * The paint of the text. Changes, color included, are seen by the rows
+     * drawn afterwards.
+     *
+     * @return TextPaint
+     */
+    public TextPaint getTextPaint() {
+        return mTextPaint;
+    }
+
+    /**
+     * @return TextPaint
+     */
+    public TextPaint getWhenPaint() {
+        return mWhenPaint;
+    }
+
+    /**
+     * @return Paint
+     */
+    public Paint getProgressPaint() {
+        return mProgressPaint;
+    }
+
+    /**
+     * Stop building the text layouts of this renderer in advance. Called when
+     * the renderer is no longer set to the board.
+     */
+    public void release() {
+        if (mTitleSpec != null) {
+            if (DBG) Log.v(TAG, "release");
+            final TextLayoutCache cache = TextLayoutCache.getInstance();
+            cache.removeSpec(mTitleSpec);
+            cache.removeSpec(mTextSpec);
+            mTitleSpec = null;
+            mTextSpec = null;
+            mWidth = 0;
+        }
+    }
+
+    /**
+     * Whether a notification can be drawn by this renderer.
+     *
+     * @param entry
+     * @return boolean
+     */
+    public boolean canRender(NotificationEntry entry) {
+        return !entry.hasActions();
+    }
+
+    /**
+     * Get the height of the row of a notification.
+     *
+     * @param entry
+     * @param width
+     * @return int
+     */
+    public int getHeight(NotificationEntry entry, int width) {
+        updateSpecs(width);
+
+        int h = getLineHeight(mTitlePaint);
+        final StaticLayout text = getTextLayout(entry);
+        if (text != null) {
+            h += mLineSpacing + text.getHeight();
+        }
+        if (hasProgress(entry)) {
+            h += mLineSpacing + mProgressHeight;
+        }
+        return Math.max(h, mIconSize) + mPadding * 2;
+    }
+
+    /**
+     * Draw the row of a notification.
+     *
+     * @param canvas
+     * @param entry
+     * @param width
+     * @param listener notified when the icon is decoded, if not cached yet.
+     */
+    public void draw(Canvas canvas, NotificationEntry entry, int width,
+                     NotificationIconLoader.OnIconLoadedListener listener) {
+        updateSpecs(width);
+
+        final int left = mPadding * 2 + mIconSize;
+        int y = mPadding;
+
+        mRect.set(mPadding, mPadding, mPadding + mIconSize, mPadding + mIconSize);
+        drawIcon(canvas, entry, listener);
+
+        final StaticLayout title = entry.title != null ?
+            TextLayoutCache.getInstance().obtain(entry, mTitleSpec) : null;
+        if (title != null) {
+            canvas.save();
+            canvas.translate(left, y);
+            title.draw(canvas);
+            canvas.restore();
+        }
+
+        if (entry.showWhen && entry.whenFormatted != null) {
+            final CharSequence when = entry.whenFormatted;
+            canvas.drawText(when, 0, when.length(), width - mPadding,
+                            y - mTitlePaint.ascent(), mWhenPaint);
+        }
+        y += getLineHeight(mTitlePaint);
+
+        final StaticLayout text = getTextLayout(entry);
+        if (text != null) {
+            y += mLineSpacing;
+            canvas.save();
+            canvas.translate(left, y);
+            text.draw(canvas);
+            canvas.restore();
+            y += text.getHeight();
+        }
+
+        if (hasProgress(entry)) {
+            y += mLineSpacing;
+            final int right = width - mPadding;
+            canvas.drawRect(left, y, right, y + mProgressHeight, mProgressBackgroundPaint);
+            if (!entry.progressIndeterminate) {
+                final int end = left + (int) ((long) (right - left) *
+                    Math.max(0, Math.min(entry.progress, entry.progressMax)) / entry.progressMax);
+                canvas.drawRect(left, y, end, y + mProgressHeight, mProgressPaint);
+            }
+        }
+    }
+
+    private void drawIcon(Canvas canvas, NotificationEntry entry,
+                          NotificationIconLoader.OnIconLoadedListener listener) {
+        if (entry.iconDrawable != null) {
+            // the drawable may be shown by NotificationView as well, keep its bounds.
+            final Drawable icon = entry.iconDrawable;
+            mIconBounds.set(icon.getBounds());
+            icon.setBounds(mRect);
+            icon.draw(canvas);
+            icon.setBounds(mIconBounds);
+        } else if (entry.iconUri != null) {
+            final Bitmap bitmap = NotificationIconLoader.getInstance(mContext)
+                .request(entry.iconUri, mIconSize, mIconSize, listener);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, null, mRect, mBitmapPaint);
+            }
+        } else if (entry.smallIconRes != 0) {
+            Drawable icon = mIcons.get(entry.smallIconRes);
+            if (icon == null) {
+                icon = mContext.getResources().getDrawable(entry.smallIconRes);
+                mIcons.put(entry.smallIconRes, icon);
+            }
+            icon.setBounds(mRect);
+            icon.draw(canvas);
+        } else if (entry.largeIconBitmap != null) {
+            canvas.drawBitmap(entry.largeIconBitmap, null, mRect, mBitmapPaint);
+        }
+    }
+
+    private StaticLayout getTextLayout(NotificationEntry entry) {
+        return entry.text != null ? TextLayoutCache.getInstance().obtain(entry, mTextSpec) : null;
+    }
+
+    private static boolean hasProgress(NotificationEntry entry) {
+        // as NotificationBinder does.
+        return entry.progressIndeterminate || entry.progressMax != 0;
+    }
+
+    private static int getLineHeight(Paint paint) {
+        return (int) Math.ceil(paint.descent() - paint.ascent());
+    }
+
+    // the layouts are built in advance for the current width.
+    private void updateSpecs(int width) {
+        if (mWidth == width && mTitleSpec != null &&
+            mTitleSpec.matches(NotificationBinder.TITLE, mTitlePaint, mTitleSpec.width) &&
+            mTextSpec.matches(NotificationBinder.TEXT, mTextPaint, mTextSpec.width)) {
+            return;
+        }
+
+        final TextLayoutCache cache = TextLayoutCache.getInstance();
+        if (mTitleSpec != null) {
+            cache.removeSpec(mTitleSpec);
+            cache.removeSpec(mTextSpec);
+        }
+
+        final int textWidth = Math.max(0, width - mPadding * 3 - mIconSize);
+        if (DBG) Log.v(TAG, "updateSpecs - width=" + width + ", text=" + textWidth);
+        mWidth = width;
+        mTitleSpec = new TextLayoutCache.Spec(
+            NotificationBinder.TITLE, mTitlePaint, Math.max(0, textWidth - mWhenWidth), true);
+        mTextSpec = new TextLayoutCache.Spec(
+            NotificationBinder.TEXT, mTextPaint, textWidth, false);
+        cache.addSpec(mTitleSpec);
+        cache.addSpec(mTextSpec);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.view.Choreographer;
+
+/**
+ * Posts a callback to the next frame through {@link Choreographer}.
+ *
+ * Only to be loaded on SDK Ver. >= {@link android.os.Build.VERSION_CODES.JELLY_BEAN},
+ * where Choreographer exists. Its users create it after checking the SDK Ver.
+ */
+final class FrameCallbackWrapper implements Choreographer.FrameCallback {
+
+    /**
+     * Called at the start of a frame, on the main thread.
+     */
+    interface Callback {
+
+        /**
+         * @param frameTimeNanos
+         */
+        void onFrame(long frameTimeNanos);
+    }
+
+    private final Callback mCallback;
+    private final Choreographer mChoreographer;
+
+    FrameCallbackWrapper(Callback cb) {
+        mCallback = cb;
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    void post() {
+        mChoreographer.postFrameCallback(this);
+    }
+
+    void remove() {
+        mChoreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mCallback.onFrame(frameTimeNanos);
+    }
+}
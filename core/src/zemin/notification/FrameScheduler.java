@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Dispatches messages at the start of the next frame, on the main thread.
+ *
+ * Messages posted between two frames are merged by their "what" (the last
+ * post wins), and all of them are dispatched in one pass, in the order they
+ * were posted. Messages posted during a pass are deferred to the next frame.
+ *
+ * On SDK Ver. < {@link android.os.Build.VERSION_CODES.JELLY_BEAN}, the pass
+ * is simply posted to the main looper.
+ */
+final class FrameScheduler {
+
+    private static final String TAG = "zemin.FrameScheduler";
+    public static boolean DBG;
+
+    /**
+     * Receives the messages of a frame pass.
+     */
+    interface Callback {
+
+        /**
+         * @param what
+         * @param arg1
+         * @param obj
+         */
+        void onFrameMessage(int what, int arg1, Object obj);
+    }
+
+    private final Callback mCallback;
+    private final Handler mHandler;
+    private FrameCallbackWrapper mFrameCallback;
+
+    private Queue mPending = new Queue();
+    private Queue mDispatching = new Queue();
+    private boolean mFrameRequested;
+
+    FrameScheduler(Callback cb) {
+        mCallback = cb;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Post a message to the next frame. A pending message with the same
+     * "what" is replaced.
+     *
+     * @param what
+     * @param arg1
+     * @param obj
+     */
+    void post(int what, int arg1, Object obj) {
+        synchronized (this) {
+            mPending.remove(what);
+            mPending.add(what, arg1, obj);
+            requestFrameLocked();
+        }
+    }
+
+    /**
+     * Remove pending messages.
+     *
+     * @param what -1 to remove all.
+     */
+    void remove(int what) {
+        synchronized (this) {
+            if (what == -1) {
+                mPending.clear();
+                mDispatching.clear();
+            } else {
+                mPending.remove(what);
+                mDispatching.remove(what);
+            }
+        }
+    }
+
+    /**
+     * Whether a message is waiting for the next frame.
+     *
+     * @param what
+     * @return boolean
+     */
+    boolean has(int what) {
+        synchronized (this) {
+            return mPending.indexOf(what) != -1;
+        }
+    }
+
+    private void requestFrameLocked() {
+        if (mFrameRequested) {
+            return;
+        }
+        mFrameRequested = true;
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            postFrame();
+        } else {
+            mHandler.post(mPostFrame);
+        }
+    }
+
+    private void postFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback == null) {
+                mFrameCallback = new FrameCallbackWrapper(new FrameCallbackWrapper.Callback() {
+
+                        @Override
+                        public void onFrame(long frameTimeNanos) {
+                            doFrame();
+                        }
+                    });
+            }
+            mFrameCallback.post();
+        } else {
+            mHandler.post(mDoFrame);
+        }
+    }
+
+    private void doFrame() {
+        final Queue queue;
+        synchronized (this) {
+            mFrameRequested = false;
+            queue = mPending;
+            mPending = mDispatching;
+            mDispatching = queue;
+        }
+
+        if (DBG) Log.v(TAG, "doFrame: " + queue.size);
+
+        // a message may remove the ones behind it while being dispatched.
+        for (int i = 0; ; i++) {
+            int what, arg1;
+            Object obj;
+            synchronized (this) {
+                if (i >= queue.size) {
+                    queue.clear();
+                    break;
+                }
+                what = queue.whats[i];
+                arg1 = queue.args[i];
+                obj = queue.objs[i];
+                queue.objs[i] = null;
+            }
+            if (what != -1) {
+                mCallback.onFrameMessage(what, arg1, obj);
+            }
+        }
+    }
+
+    private final Runnable mPostFrame = new Runnable() {
+
+            @Override
+            public void run() {
+                postFrame();
+            }
+        };
+
+    private final Runnable mDoFrame = new Runnable() {
+
+            @Override
+            public void run() {
+                doFrame();
+            }
+        };
+
+    private static final class Queue {
+
+        int[] whats = new int[8];
+        int[] args = new int[8];
+        Object[] objs = new Object[8];
+        int size;
+
+        int indexOf(int what) {
+            for (int i = 0; i < size; i++) {
+                if (whats[i] == what) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(int what, int arg1, Object obj) {
+            if (size == whats.length) {
+                final int capacity = size * 2;
+                int[] w = new int[capacity];
+                int[] a = new int[capacity];
+                Object[] o = new Object[capacity];
+                System.arraycopy(whats, 0, w, 0, size);
+                System.arraycopy(args, 0, a, 0, size);
+                System.arraycopy(objs, 0, o, 0, size);
+                whats = w;
+                args = a;
+                objs = o;
+            }
+            whats[size] = what;
+            args[size] = arg1;
+            objs[size] = obj;
+            size++;
+        }
+
+        void remove(int what) {
+            final int index = indexOf(what);
+            if (index != -1) {
+                // keep the indices stable, the queue may be under dispatch.
+                whats[index] = -1;
+                objs[index] = null;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                objs[i] = null;
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageSwitcher;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.TextSwitcher;
+import android.widget.TextView;
+
+import android.support.v4.app.NotificationCompat;
+
+/**
+ * Binds the fields of {@link NotificationEntry} to the views of a layout.
+ *
+ * The views of the standard fields are looked up once, when the binder is
+ * created. If a layoutId is given, the ids found in that layout are remembered,
+ * so the next binder of the same layout looks up each field only once.
+ * Binding a notification is then free of lookups and allocations.
+ *
+ * The fields match the slots of {@link ChildViewManager}.
+ */
+public class NotificationBinder {
+
+    private static final String TAG = "zemin.NotificationBinder";
+    public static boolean DBG;
+
+    public static final int ICON        = ChildViewManager.SLOT_ICON;
+    public static final int TITLE       = ChildViewManager.SLOT_TITLE;
+    public static final int TEXT        = ChildViewManager.SLOT_TEXT;
+    public static final int WHEN        = ChildViewManager.SLOT_WHEN;
+    public static final int PROGRESS    = 4;
+    public static final int ACTIONS     = 5;
+    public static final int FIELD_COUNT = 6;
+
+    // candidate ids of each field, in order of preference.
+    private static final int[][] FIELD_IDS = {
+        /* ICON */     { R.id.switcher_icon, R.id.icon },
+        /* TITLE */    { R.id.switcher_title, R.id.title },
+        /* TEXT */     { R.id.switcher_text, R.id.text },
+        /* WHEN */     { R.id.switcher_when, R.id.when },
+        /* PROGRESS */ { R.id.progress },
+        /* ACTIONS */  { R.id.actions },
+    };
+
+    // layoutId -> id of each field found in that layout, 0 if none.
+    private static final SparseArray<int[]> sLayouts = new SparseArray<int[]>();
+
+    private final View[] mViews = new View[FIELD_COUNT];
+
+    // the icon uri of the last bound notification.
+    private Uri mIconUri;
+
+    /**
+     * Introspect a view hierarchy.
+     *
+     * @param root
+     */
+    public NotificationBinder(View root) {
+        this(root, 0);
+    }
+
+    /**
+     * Introspect a view hierarchy inflated from the given layout.
+     *
+     * @param root
+     * @param layoutId
+     */
+    public NotificationBinder(View root, int layoutId) {
+        int[] ids = null;
+        if (layoutId != 0) {
+            synchronized (sLayouts) {
+                ids = sLayouts.get(layoutId);
+            }
+        }
+
+        if (ids != null) {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                if (ids[i] != 0) {
+                    mViews[i] = root.findViewById(ids[i]);
+                }
+            }
+            setTextFields();
+            return;
+        }
+
+        ids = new int[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            final int[] candidates = FIELD_IDS[i];
+            for (int j = 0; j < candidates.length; j++) {
+                final View view = root.findViewById(candidates[j]);
+                if (view != null) {
+                    mViews[i] = view;
+                    ids[i] = candidates[j];
+                    break;
+                }
+            }
+        }
+
+        if (layoutId != 0) {
+            if (DBG) Log.v(TAG, "introspect layout - " + layoutId);
+            synchronized (sLayouts) {
+                sLayouts.put(layoutId, ids);
+            }
+        }
+        setTextFields();
+    }
+
+    // a NotificationTextView learns its field from the slot it is found in.
+    private void setTextFields() {
+        for (int i = TITLE; i <= WHEN; i++) {
+            if (mViews[i] instanceof NotificationTextView) {
+                ((NotificationTextView) mViews[i]).setField(i);
+            }
+        }
+    }
+
+    /**
+     * Get the view of a field.
+     *
+     * @param field
+     * @return View, or null if the layout does not have one.
+     */
+    public View getView(int field) {
+        return mViews[field];
+    }
+
+    /**
+     * Whether the layout has a view for this field.
+     *
+     * @param field
+     * @return boolean
+     */
+    public boolean hasView(int field) {
+        return mViews[field] != null;
+    }
+
+    /**
+     * Set the views of the standard fields to the {@link ChildViewManager}.
+     *
+     * @param mgr
+     */
+    public void bind(ChildViewManager mgr) {
+        for (int i = 0; i < ChildViewManager.SLOT_COUNT; i++) {
+            if (mViews[i] != null) {
+                mgr.setView(i, mViews[i]);
+            }
+        }
+    }
+
+    /**
+     * Bind the notification to the views of the standard fields.
+     *
+     * @param entry
+     */
+    public void bind(NotificationEntry entry) {
+        bind(entry, NotificationEntry.FIELD_ALL);
+    }
+
+    /**
+     * Bind the changed fields of the notification.
+     *
+     * @param entry
+     * @param fields {@link NotificationEntry#FIELD_ICON}, {@link NotificationEntry#FIELD_TITLE}, ...
+     */
+    public void bind(NotificationEntry entry, int fields) {
+        if ((fields & NotificationEntry.FIELD_ICON) != 0) {
+            bindIcon(entry);
+        }
+        if ((fields & NotificationEntry.FIELD_TITLE) != 0) {
+            bindText(mViews[TITLE], entry, TITLE);
+        }
+        if ((fields & NotificationEntry.FIELD_TEXT) != 0) {
+            bindText(mViews[TEXT], entry, TEXT);
+        }
+        if ((fields & NotificationEntry.FIELD_WHEN) != 0) {
+            bindText(mViews[WHEN], entry, WHEN);
+        }
+        if ((fields & NotificationEntry.FIELD_PROGRESS) != 0) {
+            bindProgress(mViews[PROGRESS], entry);
+        }
+    }
+
+    /**
+     * Bind the notification to the standard fields of a status bar notification.
+     * This may decode the icon, do not call it on the main thread.
+     *
+     * @param context
+     * @param builder
+     * @param entry
+     */
+    public static void bind(Context context, NotificationCompat.Builder builder,
+                            NotificationEntry entry) {
+        bind(context, builder, entry, NotificationEntry.FIELD_ALL);
+    }
+
+    /**
+     * Bind the changed fields of the notification to a status bar notification.
+     * This may decode the icon, do not call it on the main thread.
+     *
+     * @param context
+     * @param builder
+     * @param entry
+     * @param fields {@link NotificationEntry#FIELD_ICON}, {@link NotificationEntry#FIELD_TITLE}, ...
+     */
+    public static void bind(Context context, NotificationCompat.Builder builder,
+                            NotificationEntry entry, int fields) {
+        if ((fields & NotificationEntry.FIELD_ICON) != 0) {
+            if (entry.smallIconRes > 0) {
+                builder.setSmallIcon(entry.smallIconRes);
+            } else {
+                Log.w(TAG, "***************** small icon not set.");
+            }
+
+            if (entry.largeIconBitmap != null) {
+                builder.setLargeIcon(entry.largeIconBitmap);
+            } else if (entry.iconUri != null) {
+                final Bitmap bitmap = NotificationIconLoader.getInstance(context)
+                    .load(entry.iconUri, 0, 0);
+                if (bitmap != null) {
+                    builder.setLargeIcon(bitmap);
+                }
+            }
+        }
+
+        if ((fields & (NotificationEntry.FIELD_TITLE | NotificationEntry.FIELD_TEXT)) != 0) {
+            CharSequence tickerText = entry.tickerText;
+            if (tickerText == null) {
+                Log.w(TAG, "***************** tickerText not set.");
+                tickerText = entry.title + ": " + entry.text;
+            }
+
+            builder.setTicker(tickerText);
+            builder.setContentTitle(entry.title);
+            builder.setContentText(entry.text);
+        }
+
+        if ((fields & NotificationEntry.FIELD_WHEN) != 0) {
+            builder.setShowWhen(entry.showWhen);
+            if (entry.showWhen && entry.whenLong > 0) {
+                builder.setWhen(entry.whenLong);
+            }
+        }
+
+        if ((fields & NotificationEntry.FIELD_PROGRESS) != 0) {
+            if (entry.progressMax != 0 || entry.progressIndeterminate) {
+                builder.setProgress(entry.progressMax, entry.progress, entry.progressIndeterminate);
+            } else if (fields != NotificationEntry.FIELD_ALL) {
+                builder.setProgress(0, 0, false);
+            }
+        }
+    }
+
+    private void bindIcon(NotificationEntry entry) {
+        final View view = mViews[ICON];
+        mIconUri = null;
+        if (view instanceof ImageView) {
+            final ImageView iconView = (ImageView) view;
+            if (entry.iconDrawable != null) {
+                iconView.setImageDrawable(entry.iconDrawable);
+            } else if (entry.iconUri != null) {
+                mIconUri = entry.iconUri;
+                final Bitmap bitmap = NotificationIconLoader.getInstance(view.getContext())
+                    .request(entry.iconUri, getSize(view, true), getSize(view, false),
+                             mOnIconLoadedListener);
+                iconView.setImageBitmap(bitmap);
+            } else if (entry.smallIconRes != 0) {
+                iconView.setImageResource(entry.smallIconRes);
+            } else if (entry.largeIconBitmap != null) {
+                iconView.setImageBitmap(entry.largeIconBitmap);
+            } else {
+                // the view may have shown the icon of another notification.
+                iconView.setImageDrawable(null);
+            }
+        } else if (view instanceof ImageSwitcher) {
+            ((ImageSwitcher) view).setImageDrawable(entry.iconDrawable);
+        }
+    }
+
+    private static int getSize(View view, boolean width) {
+        final ViewGroup.LayoutParams lp = view.getLayoutParams();
+        int size = lp == null ? 0 : width ? lp.width : lp.height;
+        if (size <= 0) {
+            size = width ? view.getWidth() : view.getHeight();
+        }
+        return size;
+    }
+
+    private final NotificationIconLoader.OnIconLoadedListener mOnIconLoadedListener =
+        new NotificationIconLoader.OnIconLoadedListener() {
+
+            @Override
+            public void onIconLoaded(Uri uri, Bitmap bitmap) {
+                // the view may have been bound to another notification meanwhile.
+                if (bitmap != null && uri.equals(mIconUri)) {
+                    ((ImageView) mViews[ICON]).setImageBitmap(bitmap);
+                }
+            }
+        };
+
+    private static void bindText(View view, NotificationEntry entry, int field) {
+        if (view instanceof NotificationTextView) {
+            // drawn from the layout precomputed for the entry.
+            ((NotificationTextView) view).setText(entry, field);
+            return;
+        }
+
+        final CharSequence text = TextLayoutCache.getText(entry, field);
+        if (view instanceof TextView) {
+            final TextView textView = (TextView) view;
+            // an unchanged text does not need another layout pass.
+            if (!TextUtils.equals(textView.getText(), text)) {
+                textView.setText(text);
+            }
+        } else if (view instanceof TextSwitcher) {
+            ((TextSwitcher) view).setCurrentText(text);
+        }
+    }
+
+    /**
+     * Bind the progress of the notification to a {@link ProgressBar}.
+     *
+     * @param view ignored if it is not a ProgressBar.
+     * @param entry
+     */
+    public static void bindProgress(View view, NotificationEntry entry) {
+        if (!(view instanceof ProgressBar)) {
+            return;
+        }
+
+        final ProgressBar bar = (ProgressBar) view;
+        if (entry.progressMax != 0 || entry.progressIndeterminate) {
+            bar.setVisibility(View.VISIBLE);
+            bar.setIndeterminate(entry.progressIndeterminate);
+            if (!entry.progressIndeterminate) {
+                bar.setMax(entry.progressMax);
+                bar.setProgress(entry.progress);
+            }
+        } else {
+            bar.setVisibility(View.GONE);
+        }
+    }
+}
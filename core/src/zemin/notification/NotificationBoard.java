@@ -20,12 +20,19 @@ import android.animation.Animator;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
+import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.GestureDetector;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -42,8 +49,10 @@ import android.support.v4.view.GestureDetectorCompat;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Random;
 
 /**
@@ -54,6 +63,7 @@ import java.util.Random;
  */
 public class NotificationBoard extends FrameLayout
         implements NotificationListener,
+                   NotificationListener.ProgressListener,
                    GestureDetector.OnGestureListener,
                    GestureDetector.OnDoubleTapListener {
 
@@ -63,6 +73,37 @@ public class NotificationBoard extends FrameLayout
     public static final int OPEN_TRANSITION_TIME = 500;
     public static final int CLOSE_TRANSITION_TIME = 500;
 
+    /**
+     * the rows on screen are dismissed one after another within this time
+     * when all notifications are cleared.
+     */
+    public static final int CLEAR_ALL_TRANSITION_TIME = 800;
+    public static final int CLEAR_ALL_ROW_DELAY = 200;
+
+    /**
+     * Higher priority first, then the latest {@link NotificationEntry#whenLong}.
+     *
+     * @see #setComparator
+     */
+    public static final Comparator<NotificationEntry> ORDER_BY_PRIORITY =
+        new Comparator<NotificationEntry>() {
+
+            @Override
+            public int compare(NotificationEntry lhs, NotificationEntry rhs) {
+                final NotificationEntry.Priority l = lhs.priority != null ?
+                    lhs.priority : NotificationEntry.DEFAULT_PRIORITY;
+                final NotificationEntry.Priority r = rhs.priority != null ?
+                    rhs.priority : NotificationEntry.DEFAULT_PRIORITY;
+                if (l != r) {
+                    return l.higher(r) ? -1 : 1;
+                }
+                return lhs.whenLong > rhs.whenLong ? -1 : (lhs.whenLong < rhs.whenLong ? 1 : 0);
+            }
+        };
+
+    // number of rows measured in each idle pass, after the board is shown.
+    private static final int ROW_PAGE_SIZE = 4;
+
     public static final int OPEN_TRIGGER_VELOCITY = 150;
     public static final int CLOSE_TRIGGER_VELOCITY = 150;
 
@@ -80,8 +121,15 @@ public class NotificationBoard extends FrameLayout
 
     private final int[] mRowMargin = { 0, 0, 0, 0 };
 
-    private ArrayList<NotificationEntry> mPendingArrives = null;
-    private ArrayList<NotificationEntry> mPendingCancels = null;
+    // net changes received while the rows can not change, in the order they
+    // were received. the changes removed stay in the list with no entry.
+    private final ArrayList<PendingChange> mPendings = new ArrayList<PendingChange>();
+    // the same changes, by notification id.
+    private final SparseArray<PendingChange> mPendingsById = new SparseArray<PendingChange>();
+    private final ArrayList<PendingChange> mPendingPool = new ArrayList<PendingChange>();
+    private final ArrayList<PendingChange> mUpdatingPendings = new ArrayList<PendingChange>();
+    private boolean mUpdatingPendingsInUse;
+    private final ArrayList<NotificationEntry> mPendingProgress = new ArrayList<NotificationEntry>();
     private ArrayList<StateListener> mListeners = null;
 
     private final Object mLock = new Object();
@@ -97,7 +145,12 @@ public class NotificationBoard extends FrameLayout
     private BodyView mBody;
     private HeaderView mHeader;
     private FooterView mFooter;
-    private LinearLayout mContainer;
+    private RowContainer mContainer;
+    // rows changed while the board was closed, see refreshRowViews().
+    private final ArrayList<RowItem> mChangedItems = new ArrayList<RowItem>();
+    private final ArrayList<RowItem> mRenewedItems = new ArrayList<RowItem>();
+    private final SparseArray<NotificationEntry> mActiveEntries = new SparseArray<NotificationEntry>();
+    private FlatRowRenderer mFlatRowRenderer;
     private RowView mRemovingView;
     private Drawable mHeaderDivider;
     private Drawable mFooterDivider;
@@ -124,6 +177,14 @@ public class NotificationBoard extends FrameLayout
     private boolean mCloseOnHomeKey = true;
     private boolean mCloseOnOutsideTouch = true;
     private boolean mCloseOnRemovingRowView = false;
+    private boolean mPageInScheduled = false;
+    private boolean mPrewarmScheduled = false;
+    private boolean mPrewarmed = false;
+    private boolean mOpenPrewarmed = false;
+    private long mOpenStartNanos;
+    private long mLastOpenLatencyNanos;
+    private final int[] mOpenCounts = new int[2];
+    private final long[] mTotalOpenLatencyNanos = new long[2];
     private int mRowViewToRemove;
     private float mInitialX;
     private float mInitialY;
@@ -307,6 +368,9 @@ public class NotificationBoard extends FrameLayout
         if (mCallback != cb) {
             mCallback = cb;
             mCallbackChanged = true;
+            mPrewarmed = false;
+            // the pooled row views were made by the previous callback.
+            mContainer.clearScrap();
         }
     }
 
@@ -922,6 +986,55 @@ public class NotificationBoard extends FrameLayout
         return mContainer.getDividerDrawable();
     }
 
+    /**
+     * Set the distance, above and below the visible area of the body, within
+     * which the rows are bound ahead of scrolling. The default is half the
+     * height of the body.
+     *
+     * @param distance
+     */
+    public void setRowPrefetchDistance(int distance) {
+        mContainer.mPrefetchDistance = distance;
+    }
+
+    /**
+     * Get the distance within which the rows are bound ahead of scrolling.
+     *
+     * @return int
+     */
+    public int getRowPrefetchDistance() {
+        return mContainer.getPrefetchDistance();
+    }
+
+    /**
+     * Draw the rows on a canvas by a {@link FlatRowRenderer}, one view per row,
+     * instead of the views made by {@link NotificationBoardCallback#makeRowView}.
+     * The rows which cannot be drawn by it still use the latter.
+     *
+     * The rows drawn by it have no child views, the row view callbacks of
+     * {@link NotificationBoardCallback} are not called for them.
+     *
+     * @see RowView#isFlat
+     *
+     * @param renderer null, to draw all rows by views.
+     */
+    public void setFlatRowRenderer(FlatRowRenderer renderer) {
+        if (mFlatRowRenderer != renderer) {
+            if (mFlatRowRenderer != null) {
+                mFlatRowRenderer.release();
+            }
+            mFlatRowRenderer = renderer;
+            mContainer.rebindAll();
+        }
+    }
+
+    /**
+     * @return FlatRowRenderer
+     */
+    public FlatRowRenderer getFlatRowRenderer() {
+        return mFlatRowRenderer;
+    }
+
     /**
      * Set body overscroll mode.
      *
@@ -950,18 +1063,182 @@ public class NotificationBoard extends FrameLayout
 
     /**
      * Get {@link NotificationBoard#RowView} by the id of {@link NotificationEntry}.
+     * Only the rows within the visible area, plus the prefetch distance, are bound.
+     *
+     * @see #setRowPrefetchDistance
      *
      * @param notification
-     * @return RowView
+     * @return RowView, or null if not bound.
      */
     public RowView getRowView(int notification) {
-        for (int i = 0, count = mContainer.getChildCount(); i < count; i++) {
-            RowView rowView = (RowView) mContainer.getChildAt(i);
-            if (rowView.notification == notification) {
-                return rowView;
-            }
+        final RowItem item = mContainer.getItem(notification);
+        return item != null ? item.row : null;
+    }
+
+    /**
+     * @return int number of row views reused from the pool.
+     */
+    public int getRowViewPoolHitCount() {
+        return mContainer.mPoolHits;
+    }
+
+    /**
+     * @return int number of row views made as none was found in the pool.
+     */
+    public int getRowViewPoolMissCount() {
+        return mContainer.mPoolMisses;
+    }
+
+    /**
+     * Build and measure the board and its first page of rows the next time
+     * the main thread is idle, so that the next {@link #open} only has to
+     * attach and animate them. The board stays gone.
+     */
+    public void prewarm() {
+        if (mEnabled && !mShowing && !mPrewarmed) {
+            schedulePrewarm();
         }
-        return null;
+    }
+
+    /**
+     * Whether the board has been pre-warmed since it was last shown.
+     *
+     * @return boolean
+     */
+    public boolean isPrewarmed() {
+        return mPrewarmed;
+    }
+
+    /**
+     * Get the time from the last open request to the first frame drawn.
+     *
+     * @return long nanoseconds, or 0 if not yet measured.
+     */
+    public long getLastOpenLatencyNanos() {
+        return mLastOpenLatencyNanos;
+    }
+
+    /**
+     * Whether the board was pre-warmed before the last open.
+     *
+     * @return boolean
+     */
+    public boolean isLastOpenPrewarmed() {
+        return mOpenPrewarmed;
+    }
+
+    /**
+     * @param prewarmed
+     * @return int number of opens measured.
+     */
+    public int getOpenCount(boolean prewarmed) {
+        return mOpenCounts[prewarmed ? 1 : 0];
+    }
+
+    /**
+     * Get the average time from an open request to the first frame drawn.
+     *
+     * @param prewarmed
+     * @return long nanoseconds, or 0 if not yet measured.
+     */
+    public long getAverageOpenLatencyNanos(boolean prewarmed) {
+        final int i = prewarmed ? 1 : 0;
+        return mOpenCounts[i] == 0 ? 0L : mTotalOpenLatencyNanos[i] / mOpenCounts[i];
+    }
+
+    /**
+     * Set the order of the rows. Arrivals and updates are placed in order by
+     * a binary search. Null to place the newest on top.
+     *
+     * If grouped, the rows are ordered within their sections.
+     *
+     * @see #setGroupByTag
+     *
+     * @param comparator
+     */
+    public void setComparator(Comparator<NotificationEntry> comparator) {
+        mContainer.setComparator(comparator);
+    }
+
+    /**
+     * Get the order of the rows.
+     *
+     * @return Comparator
+     */
+    public Comparator<NotificationEntry> getComparator() {
+        return mContainer.getComparator();
+    }
+
+    /**
+     * Group the rows into sections by {@link NotificationEntry#tag}, each
+     * under a header which collapses or expands it. The rows of a collapsed
+     * section are not bound.
+     *
+     * The sections are first ordered by their top most row. A section made
+     * afterwards goes on top, and a section keeps its place when a row joins it.
+     *
+     * @see NotificationBoardCallback#makeSectionHeaderView
+     *
+     * @param group
+     */
+    public void setGroupByTag(boolean group) {
+        if (group && mCallback == null) {
+            setCallback(new NotificationBoardCallback());
+        }
+        mContainer.setGrouped(group);
+    }
+
+    /**
+     * Whether the rows are grouped by tag.
+     *
+     * @return boolean
+     */
+    public boolean isGroupByTag() {
+        return mContainer.isGrouped();
+    }
+
+    /**
+     * Collapse or expand the section of a tag.
+     *
+     * @param tag
+     * @param collapsed
+     */
+    public void setSectionCollapsed(String tag, boolean collapsed) {
+        final Section section = mContainer.getSection(tag);
+        if (section != null) {
+            mContainer.setSectionCollapsed(section, collapsed);
+        }
+    }
+
+    /**
+     * Whether the section of a tag is collapsed.
+     *
+     * @param tag
+     * @return boolean
+     */
+    public boolean isSectionCollapsed(String tag) {
+        final Section section = mContainer.getSection(tag);
+        return section != null && section.collapsed;
+    }
+
+    /**
+     * Get section count.
+     *
+     * @return int 0, if not grouped.
+     */
+    public int getSectionCount() {
+        return mContainer.getSectionCount();
+    }
+
+    /**
+     * Get the notification count of the section of a tag.
+     *
+     * @param tag
+     * @return int
+     */
+    public int getSectionNotificationCount(String tag) {
+        final Section section = mContainer.getSection(tag);
+        return section != null ? section.count : 0;
     }
 
     /**
@@ -995,8 +1272,8 @@ public class NotificationBoard extends FrameLayout
      * @return NotificationEntry
      */
     public NotificationEntry getNotification(int notification) {
-        RowView rowView = getRowView(notification);
-        return rowView != null ? rowView.getNotification() : null;
+        final RowItem item = mContainer.getItem(notification);
+        return item != null ? item.entry : null;
     }
 
     /**
@@ -1005,7 +1282,7 @@ public class NotificationBoard extends FrameLayout
      * @return int
      */
     public int getNotificationCount() {
-        return mContainer.getChildCount();
+        return mContainer.getItemCount();
     }
 
     /**
@@ -1705,16 +1982,20 @@ public class NotificationBoard extends FrameLayout
                 break;
             }
         }
+
+        if (mShowing && mOpened && !mAnimating && !mPaused) {
+            // nothing is moving, apply the changes received during the gesture.
+            updatePendings();
+        }
     }
 
     @Override
     public void onArrival(NotificationEntry entry) {
         synchronized (mLock) {
             if (mShowing && !mClosing) {
-                if (mPaused || mAnimating || mScrolling) {
-                    addPendingArrive(entry);
-                } else {
-                    addRowView(entry);
+                addPendingArrive(entry);
+                if (!mPaused && !mAnimating && !mScrolling) {
+                    mFrames.post(MSG_UPDATE_PENDINGS, 0, null);
                 }
             }
         }
@@ -1724,10 +2005,9 @@ public class NotificationBoard extends FrameLayout
     public void onCancel(NotificationEntry entry) {
         synchronized (mLock) {
             if (mShowing && !mClosing) {
-                if (mAnimating || mScrolling) {
-                    addPendingCancel(entry);
-                } else {
-                    removeRowView(entry);
+                addPendingCancel(entry);
+                if (!mAnimating && !mScrolling) {
+                    mFrames.post(MSG_UPDATE_PENDINGS, 0, null);
                 }
             }
         }
@@ -1735,12 +2015,35 @@ public class NotificationBoard extends FrameLayout
 
     @Override
     public void onUpdate(NotificationEntry entry) {
-        RowView rowView = getRowView(entry.ID);
-        if (rowView != null) {
-            updateRowView(rowView);
+        synchronized (mLock) {
+            if (mShowing && !mClosing && (mAnimating || mScrolling)) {
+                addPendingUpdate(entry, entry.getUpdatedFields());
+                return;
+            }
+        }
+
+        updateRow(entry, entry.getUpdatedFields());
+    }
+
+    @Override
+    public void onProgress(NotificationEntry entry) {
+        if (mShowing && !mClosing && !mPendingProgress.contains(entry)) {
+            mPendingProgress.add(entry);
+            mFrames.post(MSG_UPDATE_PROGRESS, 0, null);
         }
     }
 
+    private void onFrameUpdateProgress() {
+        for (int i = 0, size = mPendingProgress.size(); i < size; i++) {
+            NotificationEntry entry = mPendingProgress.get(i);
+            RowView rowView = getRowView(entry.ID);
+            if (rowView != null) {
+                updateRowView(rowView, NotificationEntry.FIELD_PROGRESS);
+            }
+        }
+        mPendingProgress.clear();
+    }
+
     private void show() {
         if (mCallback == null) {
             if (DBG) Log.v(TAG, "set default NotificationBoardCallback");
@@ -1751,28 +2054,139 @@ public class NotificationBoard extends FrameLayout
             return;
         }
 
-        if (DBG) Log.v(TAG, "show");
+        if (DBG) Log.v(TAG, "show - prewarmed=" + mPrewarmed);
+
+        cancelPrewarm();
+        mOpenStartNanos = System.nanoTime();
+        mOpenPrewarmed = mPrewarmed;
+        mPrewarmed = false;
+
+        mShowing = true;
+        mFirstLayout = true;
+
+        setup();
+
+        // bind the first screenful for the open, page in the rest while idle.
+        mContainer.setPrefetchEnabled(false);
+        refreshRowViews();
+        schedulePageIn();
+        setVisibility(VISIBLE);
+        onPrepare();
+    }
 
+    private void setup() {
         if (mCallbackChanged) {
             mCallbackChanged = false;
             mCallback.onBoardSetup(this);
         }
 
-        mShowing = true;
-        mFirstLayout = true;
-
         mContentView.updateLayoutParams();
         mHeader.updateMargin();
         mHeader.updateDimension();
         mBody.updateMargin();
         mFooter.updateMargin();
         mFooter.updateDimension();
+    }
+
+    private void schedulePrewarm() {
+        if (!mPrewarmScheduled) {
+            mPrewarmScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrewarmHandler);
+        }
+    }
+
+    private void cancelPrewarm() {
+        if (mPrewarmScheduled) {
+            mPrewarmScheduled = false;
+            Looper.myQueue().removeIdleHandler(mPrewarmHandler);
+        }
+    }
+
+    private final MessageQueue.IdleHandler mPrewarmHandler = new MessageQueue.IdleHandler() {
+
+            @Override
+            public boolean queueIdle() {
+                mPrewarmScheduled = false;
+                if (!mShowing && mEnabled) {
+                    prewarmNow();
+                }
+                return false;
+            }
+        };
+
+    private void prewarmNow() {
+        if (DBG) Log.v(TAG, "prewarm");
 
+        if (mCallback == null) {
+            if (DBG) Log.v(TAG, "set default NotificationBoardCallback");
+            setCallback(new NotificationBoardCallback());
+        }
+
+        setup();
+
+        // measure the board and its first page of rows while it is gone, so
+        // that the open only has to lay them out and draw.
+        mContainer.setPrefetchEnabled(false);
         refreshRowViews();
-        setVisibility(VISIBLE);
-        onPrepare();
+
+        final DisplayMetrics dm = getResources().getDisplayMetrics();
+        final int width = getWidth() > 0 ? getWidth() : dm.widthPixels;
+        final int height = getHeight() > 0 ? getHeight() : dm.heightPixels;
+        measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+        mPrewarmed = true;
+    }
+
+    private void onFirstOpenFrame() {
+        final long latency = System.nanoTime() - mOpenStartNanos;
+        final int i = mOpenPrewarmed ? 1 : 0;
+        mOpenStartNanos = 0L;
+        mLastOpenLatencyNanos = latency;
+        mOpenCounts[i]++;
+        mTotalOpenLatencyNanos[i] += latency;
+
+        if (DBG) Log.v(TAG, "open latency=" + (latency / 1000000L) +
+                       "ms, prewarmed=" + mOpenPrewarmed);
+    }
+
+    private void schedulePageIn() {
+        mContainer.resetPageCursor();
+        if (!mPageInScheduled) {
+            mPageInScheduled = true;
+            Looper.myQueue().addIdleHandler(mPageInHandler);
+        }
+    }
+
+    private void cancelPageIn() {
+        if (mPageInScheduled) {
+            mPageInScheduled = false;
+            Looper.myQueue().removeIdleHandler(mPageInHandler);
+        }
     }
 
+    private final MessageQueue.IdleHandler mPageInHandler = new MessageQueue.IdleHandler() {
+
+            @Override
+            public boolean queueIdle() {
+                if (!mShowing || mClosing) {
+                    mPageInScheduled = false;
+                    return false;
+                }
+
+                if (mAnimating || mScrolling) {
+                    return true;
+                }
+
+                if (!mContainer.mPrefetchEnabled) {
+                    mContainer.setPrefetchEnabled(true);
+                    return true;
+                }
+
+                mPageInScheduled = mContainer.measurePage(ROW_PAGE_SIZE);
+                return mPageInScheduled;
+            }
+        };
+
     private void animateOpen() {
         if (mOpened) {
             return;
@@ -1890,12 +2304,22 @@ public class NotificationBoard extends FrameLayout
         public static final float DISMISS_TRIGGER_VELOCITY = 150.0f;
         public static final float DISMISS_DRAG_DISTANCE_FACTOR = 0.7f;
 
-        public final int notification;
+        /**
+         * view type of the rows drawn by {@link FlatRowRenderer}, reserved.
+         */
+        public static final int VIEW_TYPE_FLAT = Integer.MIN_VALUE;
+
+        public int notification;
 
+        private FlatRowRenderer mRenderer;
+        private int mViewType;
+        private int mVersion;
         private NotificationEntry mEntry;
         private ChildViewManager mChildViewManager;
+        private NotificationBinder mBinder;
         private float mDismissOnDragDistanceFarEnough;
         private boolean mCloseBoardOnClick = true;
+        private boolean mAnimatingX;
 
         private final int[] mMargin = {
             /* l */ 0,
@@ -1911,6 +2335,22 @@ public class NotificationBoard extends FrameLayout
             setOnClickListener(mOnClickListenerRowView);
         }
 
+        // a recycled row view is bound to another notification.
+        void bind(NotificationEntry entry) {
+            mEntry = entry;
+            this.notification = entry.ID;
+            mCloseBoardOnClick = true;
+            mDismissOnDragDistanceFarEnough = 0;
+            animate().cancel();
+            setTranslationX(0.0f);
+            setAlpha(1.0f);
+        }
+
+        // whether this row view is being swiped or animated, and must stay bound.
+        boolean isBusy() {
+            return mAnimatingX || this == mRemovingView;
+        }
+
         public ChildViewManager getChildViewManager() {
             if (mChildViewManager == null) {
                 mChildViewManager = new ChildViewManager();
@@ -1918,6 +2358,19 @@ public class NotificationBoard extends FrameLayout
             return mChildViewManager;
         }
 
+        /**
+         * Get the binder of the standard fields. The row view is introspected
+         * the first time this is called.
+         *
+         * @return NotificationBinder
+         */
+        public NotificationBinder getBinder() {
+            if (mBinder == null) {
+                mBinder = new NotificationBinder(this);
+            }
+            return mBinder;
+        }
+
         public void setCloseBoardOnClick(boolean close) {
             mCloseBoardOnClick = close;
         }
@@ -1931,31 +2384,94 @@ public class NotificationBoard extends FrameLayout
             return mEntry;
         }
 
-        public boolean canBeDismissed() {
-            return !mEntry.ongoing;
+        /**
+         * @see NotificationBoardCallback#getRowViewType
+         *
+         * @return int
+         */
+        public int getViewType() {
+            return mViewType;
         }
 
-        public void dismiss(boolean anim) {
-            if (canBeDismissed()) {
-                if (!mPaused) {
-                    mPaused = true;
-                    mRowViewToRemove = 1;
-                }
+        /**
+         * Whether this row is drawn by {@link FlatRowRenderer}, without child views.
+         *
+         * @return boolean
+         */
+        public boolean isFlat() {
+            return mRenderer != null;
+        }
 
-                if (anim) {
-                    animateDismissX();
-                } else {
-                    doDismiss();
-                }
+        private void setRenderer(FlatRowRenderer renderer) {
+            mRenderer = renderer;
+            setWillNotDraw(false);
+        }
+
+        // only the height may need another layout pass.
+        private void onFlatUpdate() {
+            if (getMeasuredWidth() > 0 &&
+                mRenderer.getHeight(mEntry, getMeasuredWidth()) != getMeasuredHeight()) {
+                requestLayout();
             }
+            invalidate();
         }
 
-        private void doDismiss() {
-            mCenter.cancel(notification);
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            if (mRenderer == null) {
+                super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+
+            final int width = MeasureSpec.getSize(widthMeasureSpec);
+            setMeasuredDimension(width, resolveSize(mRenderer.getHeight(mEntry, width),
+                                                    heightMeasureSpec));
         }
 
-        public void onScrollX(float offset) {
-            setTranslationX(offset);
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (mRenderer != null) {
+                mRenderer.draw(canvas, mEntry, getWidth(), mOnIconLoadedListener);
+            }
+        }
+
+        private final NotificationIconLoader.OnIconLoadedListener mOnIconLoadedListener =
+            new NotificationIconLoader.OnIconLoadedListener() {
+
+                @Override
+                public void onIconLoaded(Uri uri, Bitmap bitmap) {
+                    // the row may have been bound to another notification meanwhile.
+                    if (bitmap != null && uri.equals(mEntry.iconUri)) {
+                        invalidate();
+                    }
+                }
+            };
+
+        public boolean canBeDismissed() {
+            return !mEntry.ongoing;
+        }
+
+        public void dismiss(boolean anim) {
+            if (canBeDismissed()) {
+                if (!mPaused) {
+                    mPaused = true;
+                    mRowViewToRemove = 1;
+                }
+
+                if (anim) {
+                    animateDismissX();
+                } else {
+                    doDismiss();
+                }
+            }
+        }
+
+        private void doDismiss() {
+            mCenter.cancel(notification);
+        }
+
+        public void onScrollX(float offset) {
+            setTranslationX(offset);
             if (canBeDismissed()) {
                 if (mDismissOnDragDistanceFarEnough == 0) {
                     mDismissOnDragDistanceFarEnough = getMeasuredWidth() * DISMISS_DRAG_DISTANCE_FACTOR;
@@ -2003,6 +2519,7 @@ public class NotificationBoard extends FrameLayout
             x = t >= 0 ? w : -w;
 
             animate().cancel();
+            mAnimatingX = true;
             animate().alpha(0.0f).translationX(x)
                 .setListener(mDismissAnimatorListener)
                 .setDuration(DISMISS_TRANSITION_TIME)
@@ -2011,6 +2528,7 @@ public class NotificationBoard extends FrameLayout
 
         public void animateDragCancelX() {
             animate().cancel();
+            mAnimatingX = true;
             animate().alpha(1.0f).translationX(0.0f)
                 .setListener(mDragCancelAnimatorListener)
                 .setDuration(DRAG_CANCEL_TRANSITION_TIME)
@@ -2057,6 +2575,7 @@ public class NotificationBoard extends FrameLayout
 
                 @Override
                 public void onAnimationEnd(Animator animation) {
+                    mAnimatingX = false;
                     if (!mCanceled) {
                         if (DBG) Log.v(TAG, "RowView dismiss end");
                         mAnimating = false;
@@ -2085,6 +2604,7 @@ public class NotificationBoard extends FrameLayout
 
                 @Override
                 public void onAnimationEnd(Animator animation) {
+                    mAnimatingX = false;
                     if (!mCanceled) {
                         if (DBG) Log.v(TAG, "RowView drag cancel end");
                         mAnimating = false;
@@ -2143,49 +2663,121 @@ public class NotificationBoard extends FrameLayout
         rowView.dismiss(anim);
     }
 
-    private RowView makeRowView(NotificationEntry entry) {
-        if (entry.showWhen && entry.whenFormatted == null) {
-            entry.setWhen(null, entry.whenLong > 0L ?
-                          entry.whenLong : System.currentTimeMillis());
-        }
-
+    private RowView makeRowView(NotificationEntry entry, int viewType) {
         RowView rowView = new RowView(mContext, entry);
-        View view = mCallback.makeRowView(this, entry, mInflater);
-        rowView.addView(view);
+        if (viewType == RowView.VIEW_TYPE_FLAT) {
+            rowView.setRenderer(mFlatRowRenderer);
+        } else {
+            View view = mCallback.makeRowView(this, entry, mInflater);
+            rowView.addView(view);
+        }
         return rowView;
     }
 
+    private int getRowViewType(NotificationEntry entry) {
+        if (mFlatRowRenderer != null && mFlatRowRenderer.canRender(entry)) {
+            return RowView.VIEW_TYPE_FLAT;
+        }
+        return mCallback.getRowViewType(this, entry);
+    }
+
     private void addRowView(NotificationEntry entry) {
         if (DBG) Log.v(TAG, "addRowView - " + entry.ID);
         mInLayout = true;
-        RowView rowView = makeRowView(entry);
-        mContainer.addView(rowView, 0, rowView.makeLayoutParams());
-        mCallback.onRowViewAdded(this, rowView, entry);
-        removePendingArrive(entry);
-        updateRowView(rowView);
+        final RowItem item = mContainer.getItem(entry.ID);
+        if (item != null) {
+            // keep a single row per id, the index relies on it.
+            mContainer.removeItem(item);
+        }
+        mContainer.addItem(entry);
+        removePending(entry, PendingChange.ARRIVE);
     }
 
-    private void updateRowView(RowView rowView) {
-        if (DBG) Log.v(TAG, "updateRowView - " + rowView.notification);
-        mCallback.onRowViewUpdate(this, rowView, rowView.mEntry);
+    private View makeSectionHeaderView(final Section section) {
+        final View header = mCallback.makeSectionHeaderView(this, section.tag, mInflater);
+        header.setOnClickListener(new View.OnClickListener() {
+
+                @Override
+                public void onClick(View view) {
+                    if (DBG) Log.v(TAG, "onClickSectionHeader - " + section.tag);
+                    mCallback.onClickSectionHeader(NotificationBoard.this, view, section.tag);
+                }
+            });
+        return header;
     }
 
-    private void removeRowView(NotificationEntry entry) {
-        for (int i = 0, count = mContainer.getChildCount(); i < count; i++) {
-            RowView rowView = (RowView) mContainer.getChildAt(i);
-            if (entry.ID == rowView.notification) {
-                removeRowView(rowView);
-                break;
+    private void updateSectionHeader(Section section) {
+        mCallback.onSectionHeaderUpdate(this, section.header, section.tag,
+                                        section.count, section.collapsed);
+    }
+
+    // called by RowContainer, as the row comes into the bound area.
+    private void onRowViewBound(RowView rowView) {
+        final NotificationEntry entry = rowView.mEntry;
+        if (entry.showWhen && entry.whenFormatted == null) {
+            entry.setWhen(null, entry.whenLong > 0L ?
+                          entry.whenLong : System.currentTimeMillis());
+        }
+        if (!rowView.isFlat()) {
+            mCallback.onRowViewAdded(this, rowView, entry);
+        }
+        updateRowView(rowView, NotificationEntry.FIELD_ALL);
+    }
+
+    // called by RowContainer, as the row leaves the bound area or is removed.
+    private void onRowViewUnbound(RowView rowView) {
+        if (rowView == mRemovingView) {
+            mRemovingView = null;
+        }
+        if (!rowView.isFlat()) {
+            mCallback.onRowViewRemoved(this, rowView, rowView.mEntry);
+        }
+    }
+
+    private void updateRow(NotificationEntry entry, int changes) {
+        final RowItem item = mContainer.getItem(entry.ID);
+        if (item == null) {
+            return;
+        }
+
+        if (item.row != null) {
+            if (item.row.mViewType != getRowViewType(entry) && !item.row.isBusy()) {
+                // e.g. actions added to a flat row.
+                mInLayout = true;
+                mContainer.rebind(item);
+            } else {
+                updateRowView(item.row, changes);
             }
         }
+        if (mContainer.moveItem(item, false)) {
+            mInLayout = true;
+        }
+    }
+
+    private void updateRowView(RowView rowView, int changes) {
+        if (DBG) Log.v(TAG, "updateRowView - " + rowView.notification + ", changes=" + changes);
+        rowView.mVersion = rowView.mEntry.mVersion;
+        if (rowView.isFlat()) {
+            // no child views to bind, the row is drawn from the entry.
+            rowView.onFlatUpdate();
+        } else {
+            mCallback.onRowViewUpdate(this, rowView, rowView.mEntry, changes);
+        }
+    }
+
+    private void removeRowView(NotificationEntry entry) {
+        final RowItem item = mContainer.getItem(entry.ID);
+        if (item != null) {
+            removeRowView(item);
+        }
     }
 
-    private void removeRowView(RowView rowView) {
-        if (DBG) Log.v(TAG, "removeRowView - " + rowView.notification);
+    private void removeRowView(RowItem item) {
+        final NotificationEntry entry = item.entry;
+        if (DBG) Log.v(TAG, "removeRowView - " + entry.ID);
         mInLayout = true;
-        mContainer.removeView(rowView);
-        mCallback.onRowViewRemoved(this, rowView, rowView.mEntry);
-        removePendingCancel(rowView.mEntry);
+        mContainer.removeItem(item);
+        removePending(entry, PendingChange.CANCEL);
 
         if (mRowViewToRemove > 0) {
             mRowViewToRemove--;
@@ -2201,105 +2793,270 @@ public class NotificationBoard extends FrameLayout
     }
 
     private void removeAllRowViews() {
-        mRowViewToRemove = mContainer.getChildCount();
-        mPaused = mRowViewToRemove > 0;
-        for (int i = 0, count = mRowViewToRemove; i < count; i++) {
-            RowView rowView = (RowView) mContainer.getChildAt(i);
-            schedule(MSG_REMOVE_ROW_VIEW, 1 /* anim */, 0, rowView, 200 * (i + 1));
+        // only the rows on screen are animated, the others are removed at once.
+        final ArrayList<NotificationEntry> visibles = new ArrayList<NotificationEntry>();
+        final int scrollY = mBody.scroller.getScrollY();
+        final int bottom = scrollY + mBody.scroller.getHeight();
+        for (int i = mContainer.getItemCount() - 1; i >= 0; i--) {
+            final RowItem item = mContainer.getItemAt(i);
+            if (item.entry.ongoing) {
+                continue;
+            }
+
+            if (item.row != null && item.top < bottom &&
+                item.top + item.height > scrollY) {
+                visibles.add(item.entry);
+            } else {
+                mInLayout = true;
+                mContainer.removeItem(i);
+                removePending(item.entry, PendingChange.CANCEL);
+                mCenter.cancel(item.entry.ID);
+            }
+        }
+
+        final int count = visibles.size();
+        if (DBG) Log.v(TAG, "removeAllRowViews - animate: " + count);
+        mRowViewToRemove = count;
+        mPaused = count > 0;
+        if (count > 0) {
+            final int delay = Math.min(CLEAR_ALL_ROW_DELAY, CLEAR_ALL_TRANSITION_TIME / count);
+            for (int i = 0; i < count; i++) {
+                // top down.
+                NotificationEntry entry = visibles.get(count - 1 - i);
+                schedule(MSG_REMOVE_ROW_VIEW, 1 /* anim */, 0, entry, delay * (i + 1));
+            }
         }
     }
 
+    private void dismissRowView(NotificationEntry entry, boolean anim) {
+        final RowView rowView = getRowView(entry.ID);
+        if (rowView != null) {
+            rowView.dismiss(anim);
+        } else if (!entry.ongoing && mContainer.getItem(entry.ID) != null) {
+            // not bound, nothing to animate.
+            mCenter.cancel(entry.ID);
+        }
+    }
+
+    // keyed diff between the rows and the active notifications.
     private void refreshRowViews() {
         synchronized (mLock) {
-            final int count = mCenter.mActives.getEntryCount();
-            final int childCount = mContainer.getChildCount();
-            if (DBG) Log.v(TAG, "refreshRowViews - old: " + childCount + ", new: " + count);
-            if (count != childCount) {
-                ArrayList<NotificationEntry> entries = mCenter.mActives.getEntries();
-                ArrayList<RowView> toRemove = null;
-                for (int i = 0; i < childCount; i++) {
-                    RowView rowView = (RowView) mContainer.getChildAt(i);
-                    boolean found = false;
-                    ListIterator<NotificationEntry> iter = entries.listIterator();
-                    while (iter.hasNext()) {
-                        NotificationEntry entry = iter.next();
-                        if (entry.ID == rowView.notification) {
-                            removePendingCancel(entry);
-                            iter.remove();
-                            found = true;
-                            break;
-                        }
-                    }
+            final ArrayList<NotificationEntry> entries = mCenter.mActives.getEntries();
+            final SparseArray<NotificationEntry> actives = mActiveEntries;
+            for (int i = 0, size = entries.size(); i < size; i++) {
+                final NotificationEntry entry = entries.get(i);
+                actives.put(entry.ID, entry);
+            }
 
-                    if (!found) {
-                        if (toRemove == null) {
-                            toRemove = new ArrayList<RowView>();
-                        }
-                        toRemove.add(rowView);
-                    }
+            int removed = 0;
+            int rebound = 0;
+            int moved = 0;
+            for (int i = mContainer.getItemCount() - 1; i >= 0; i--) {
+                final RowItem item = mContainer.getItemAt(i);
+                final NotificationEntry entry = actives.get(item.entry.ID);
+                if (entry == null) {
+                    // canceled.
+                    removeRowView(item);
+                    removed++;
+                    continue;
                 }
 
-                if (toRemove != null) {
-                    for (RowView r : toRemove) {
-                        removeRowView(r);
-                    }
+                actives.remove(entry.ID);
+                removePending(entry, PendingChange.CANCEL);
+                if (entry != item.entry) {
+                    // sent again as a new notification, which moves to the top.
+                    mContainer.renewItem(item, entry);
+                    mRenewedItems.add(item);
+                    continue;
+                }
+                if (item.row != null && item.row.mVersion != entry.mVersion) {
+                    // changed while the board was closed.
+                    updateRowView(item.row, NotificationEntry.FIELD_ALL);
+                    rebound++;
+                }
+                if (item.version != entry.mVersion) {
+                    // moved once the positions are no longer iterated.
+                    mChangedItems.add(item);
                 }
+            }
+
+            for (int i = 0, size = mChangedItems.size(); i < size; i++) {
+                if (mContainer.moveItem(mChangedItems.get(i), false)) {
+                    moved++;
+                }
+            }
+            // bottom up, the renewed rows keep their order on top.
+            for (int i = 0, size = mRenewedItems.size(); i < size; i++) {
+                if (mContainer.moveItem(mRenewedItems.get(i), true)) {
+                    moved++;
+                }
+            }
+            mChangedItems.clear();
+            mRenewedItems.clear();
 
-                for (NotificationEntry entry : entries) {
+            final int inserted = actives.size();
+            for (int i = 0, size = entries.size(); i < size; i++) {
+                final NotificationEntry entry = entries.get(i);
+                if (actives.get(entry.ID) != null) {
                     addRowView(entry);
                 }
             }
+
+            actives.clear();
+
+            if (DBG) Log.v(TAG, "refreshRowViews - removed: " + removed + ", inserted: " +
+                           inserted + ", moved: " + moved + ", rebound: " + rebound);
         }
     }
 
-    private void addPendingArrive(NotificationEntry entry) {
-        if (mPendingArrives == null) {
-            mPendingArrives = new ArrayList<NotificationEntry>();
+    private static final class PendingChange {
+        static final int ARRIVE = 0;
+        static final int CANCEL = 1;
+        static final int UPDATE = 2;
+
+        int op;
+        NotificationEntry entry; // null, if removed.
+        int changes;
+    }
+
+    private static final int MAX_PENDING_POOL_SIZE = 32;
+
+    private void putPending(int op, NotificationEntry entry, int changes) {
+        final int size = mPendingPool.size();
+        final PendingChange p = size > 0 ?
+            mPendingPool.remove(size - 1) : new PendingChange();
+        p.op = op;
+        p.entry = entry;
+        p.changes = changes;
+        mPendings.add(p);
+        mPendingsById.put(entry.ID, p);
+    }
+
+    // left in the list, until the next pass recycles it.
+    private PendingChange takePending(int notification) {
+        final PendingChange p = mPendingsById.get(notification);
+        if (p != null) {
+            mPendingsById.remove(notification);
+            p.entry = null;
+        }
+        return p;
+    }
+
+    private void recyclePending(PendingChange p) {
+        p.entry = null;
+        if (mPendingPool.size() < MAX_PENDING_POOL_SIZE) {
+            mPendingPool.add(p);
         }
-        mPendingArrives.add(entry);
+    }
+
+    private void addPendingArrive(NotificationEntry entry) {
+        // re-inserted, an arrival goes after the changes received before it.
+        takePending(entry.ID);
+        putPending(PendingChange.ARRIVE, entry, 0);
     }
 
     private void addPendingCancel(NotificationEntry entry) {
-        if (mPendingCancels == null) {
-            mPendingCancels = new ArrayList<NotificationEntry>();
+        final PendingChange p = takePending(entry.ID);
+        if (p != null && p.op == PendingChange.ARRIVE && mContainer.getItem(entry.ID) == null) {
+            // arrived and canceled within the same pause.
+            return;
         }
-        mPendingCancels.add(entry);
+        putPending(PendingChange.CANCEL, entry, 0);
     }
 
-    private void removePendingArrive(NotificationEntry entry) {
-        if (mPendingArrives != null && mPendingArrives.contains(entry)) {
-            mPendingArrives.remove(entry);
+    private void addPendingUpdate(NotificationEntry entry, int changes) {
+        final PendingChange p = mPendingsById.get(entry.ID);
+        if (p == null) {
+            putPending(PendingChange.UPDATE, entry, changes);
+        } else if (p.op == PendingChange.UPDATE) {
+            p.entry = entry;
+            p.changes |= changes;
         }
+        // otherwise, the row is either bound with all fields, or removed.
     }
 
-    private void removePendingCancel(NotificationEntry entry) {
-        if (mPendingCancels != null && mPendingCancels.contains(entry)) {
-            mPendingCancels.remove(entry);
+    private void removePending(NotificationEntry entry, int op) {
+        final PendingChange p = mPendingsById.get(entry.ID);
+        if (p != null && p.op == op) {
+            takePending(entry.ID);
         }
     }
 
     private void updatePendings() {
-        if (mPendingCancels != null && !mPendingCancels.isEmpty()) {
-            for (NotificationEntry entry : mPendingCancels) {
-                removeRowView(entry);
-            }
-            mPendingCancels.clear();
+        updatePendings(true);
+    }
+
+    private void updatePendings(boolean arrivals) {
+        if (mPendingsById.size() == 0) {
+            recyclePendings(mPendings);
+            return;
         }
-        if (mPendingArrives != null && !mPendingArrives.isEmpty()) {
-            for (NotificationEntry entry : mPendingArrives) {
+
+        // a change may lead to another pass, which takes a list of its own.
+        final ArrayList<PendingChange> changes = mUpdatingPendingsInUse ?
+            new ArrayList<PendingChange>() : mUpdatingPendings;
+        mUpdatingPendingsInUse = true;
+        changes.addAll(mPendings);
+        mPendings.clear();
+        mPendingsById.clear();
+        if (DBG) Log.v(TAG, "updatePendings - " + changes.size() + ", arrivals=" + arrivals);
+
+        for (int i = 0, size = changes.size(); i < size; i++) {
+            final PendingChange p = changes.get(i);
+            if (p.entry == null) {
+                recyclePending(p);
+                continue;
+            }
+
+            if (p.op == PendingChange.ARRIVE && !arrivals) {
+                if (mPendingsById.get(p.entry.ID) == null) {
+                    mPendings.add(p);
+                    mPendingsById.put(p.entry.ID, p);
+                } else {
+                    recyclePending(p);
+                }
+                continue;
+            }
+
+            final NotificationEntry entry = p.entry;
+            final int op = p.op;
+            final int fields = p.changes;
+            recyclePending(p);
+
+            switch (op) {
+            case PendingChange.ARRIVE:
                 addRowView(entry);
+                break;
+
+            case PendingChange.CANCEL:
+                removeRowView(entry);
+                break;
+
+            case PendingChange.UPDATE:
+                updateRow(entry, fields);
+                break;
             }
-            mPendingArrives.clear();
         }
-    }
 
-    private void clearPendings() {
-        if (mPendingCancels != null) {
-            mPendingCancels.clear();
+        changes.clear();
+        if (changes == mUpdatingPendings) {
+            mUpdatingPendingsInUse = false;
         }
-        if (mPendingArrives != null) {
-            mPendingArrives.clear();
+    }
+
+    private void recyclePendings(ArrayList<PendingChange> changes) {
+        for (int i = 0, size = changes.size(); i < size; i++) {
+            recyclePending(changes.get(i));
         }
+        changes.clear();
+    }
+
+    private void clearPendings() {
+        recyclePendings(mPendings);
+        mPendingsById.clear();
+        mPendingProgress.clear();
+        mFrames.remove(MSG_UPDATE_PROGRESS);
+        mFrames.remove(MSG_UPDATE_PENDINGS);
     }
 
     private void onPrepare() {
@@ -2352,6 +3109,7 @@ public class NotificationBoard extends FrameLayout
         mShowing = false;
         mDismissed = true;
         clearPendings();
+        cancelPageIn();
         setVisibility(GONE);
 
         if (mListeners != null) {
@@ -2381,6 +3139,15 @@ public class NotificationBoard extends FrameLayout
         }
     }
 
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+
+        if (mOpenStartNanos != 0L) {
+            onFirstOpenFrame();
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
@@ -2399,6 +3166,7 @@ public class NotificationBoard extends FrameLayout
         mCenter.addListener(this);
         mGestureDetector = new GestureDetectorCompat(mContext, this);
         mH = new H(this);
+        mFrames = new FrameScheduler(mFrameCallback);
 
         mContentView = new ContentView(mContext);
         addView(mContentView,
@@ -2676,16 +3444,15 @@ public class NotificationBoard extends FrameLayout
     }
 
     private class Scroller extends ScrollView {
-        LinearLayout container;
+        RowContainer container;
+        boolean inLayout;
 
         Scroller(Context context) {
             super(context);
 
             setOverScrollMode(OVER_SCROLL_ALWAYS);
 
-            container = new LinearLayout(context);
-            container.setOrientation(LinearLayout.VERTICAL);
-            container.setShowDividers(LinearLayout.SHOW_DIVIDER_MIDDLE);
+            container = new RowContainer(context);
             addView(container);
             mContainer = container;
         }
@@ -2694,13 +3461,23 @@ public class NotificationBoard extends FrameLayout
             final int pos = getScrollY() + (int) event.getY() -
                 mHeader.getTopMargin() - mHeader.getBottomMargin() -
                 mHeader.getSuggestedHeight() - mBody.getTopMargin();
-            for (int i = 0, count = container.getChildCount(); i < count; i++) {
-                View child = container.getChildAt(i);
-                if (child.getBottom() > pos) {
-                    return child;
-                }
+            return container.findRowViewAt(pos);
+        }
+
+        @Override
+        protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+            super.onScrollChanged(l, t, oldl, oldt);
+            if (!inLayout) {
+                container.onScrollChanged(t);
             }
-            return null;
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            // the scroll position may be clamped here, the rows are rebound in the next pass.
+            inLayout = true;
+            super.onLayout(changed, l, t, r, b);
+            inLayout = false;
         }
 
         @Override
@@ -2717,11 +3494,780 @@ public class NotificationBoard extends FrameLayout
         }
     }
 
+    // a notification on the board, bound to a RowView only while it is
+    // within the visible area of the body, plus the prefetch distance.
+    private static final class RowItem {
+        NotificationEntry entry;
+        Section section;
+        RowView row;
+        int index; // position in the items.
+        int version; // of the notification, when last placed.
+        int top;
+        int height; // including the margins. 0 if never measured.
+
+        RowItem(NotificationEntry entry) {
+            this.entry = entry;
+        }
+
+        boolean isCollapsed() {
+            return section != null && section.collapsed;
+        }
+    }
+
+    // the rows of the same tag, under a header. the header stays bound while
+    // the section has rows.
+    private static final class Section {
+        final String tag;
+        int order; // sections are in descending order, the newest on top.
+        View header;
+        int count;
+        boolean collapsed;
+        boolean dirty;
+        int top;
+        int height;
+
+        Section(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Vertical list of the rows, which replaces a LinearLayout in the scroller.
+     *
+     * Row views are bound as they come into the visible area of the scroller,
+     * plus the prefetch distance, and recycled as they leave it. The rows not
+     * bound take the height measured when last bound, or the height of the
+     * last row measured.
+     *
+     * If grouped, the rows of a section are kept together, below its header.
+     * The rows of a collapsed section take no space and are never bound.
+     */
+    private class RowContainer extends ViewGroup {
+
+        private final ArrayList<RowItem> mItems = new ArrayList<RowItem>();
+        // items by the id of their notification.
+        private final SparseArray<RowItem> mItemsById = new SparseArray<RowItem>();
+        // the index of the first item whose RowItem#index may be stale.
+        private int mStaleIndex = Integer.MAX_VALUE;
+        // recycled row views, by their view type.
+        private final SparseArray<ArrayList<RowView>> mScrap = new SparseArray<ArrayList<RowView>>();
+        private int mPoolHits;
+        private int mPoolMisses;
+        private Drawable mDivider;
+        private int mDividerHeight;
+        private int mEstimatedHeight;
+        private int mPrefetchDistance = -1;
+        private boolean mPrefetchEnabled = true;
+        private int mLayoutScrollY;
+        private int mWidthMeasureSpec;
+        // where the next page is measured from.
+        private int mPageCursor;
+        // sections by tag, if grouped.
+        private final HashMap<String, Section> mSections = new HashMap<String, Section>();
+        private int mSectionOrder;
+        private boolean mGrouped;
+        private Comparator<NotificationEntry> mComparator;
+
+        RowContainer(Context context) {
+            super(context);
+            setWillNotDraw(true);
+        }
+
+        void setDividerDrawable(Drawable divider) {
+            if (mDivider == divider) {
+                return;
+            }
+            mDivider = divider;
+            mDividerHeight = divider != null ? divider.getIntrinsicHeight() : 0;
+            setWillNotDraw(divider == null);
+            requestLayout();
+        }
+
+        Drawable getDividerDrawable() {
+            return mDivider;
+        }
+
+        int getPrefetchDistance() {
+            return mPrefetchDistance >= 0 ? mPrefetchDistance : mBody.getSuggestedHeight() / 2;
+        }
+
+        // disabled, only the rows on screen are bound.
+        void setPrefetchEnabled(boolean enabled) {
+            if (mPrefetchEnabled != enabled) {
+                mPrefetchEnabled = enabled;
+                if (enabled) {
+                    requestLayout();
+                }
+            }
+        }
+
+        private int getActivePrefetchDistance() {
+            return mPrefetchEnabled ? getPrefetchDistance() : 0;
+        }
+
+        int getItemCount() {
+            return mItems.size();
+        }
+
+        RowItem getItemAt(int index) {
+            return mItems.get(index);
+        }
+
+        // the indices below mStaleIndex are kept, the others are updated on demand.
+        private int indexOf(RowItem item) {
+            if (item.index >= mStaleIndex) {
+                for (int i = mStaleIndex, size = mItems.size(); i < size; i++) {
+                    mItems.get(i).index = i;
+                }
+                mStaleIndex = Integer.MAX_VALUE;
+            }
+            return item.index;
+        }
+
+        private void invalidateIndices(int from) {
+            if (from < mStaleIndex) {
+                mStaleIndex = from;
+            }
+        }
+
+        RowItem getItem(int notification) {
+            return mItemsById.get(notification);
+        }
+
+        // added in order, on top of the rows equal to it.
+        void addItem(NotificationEntry entry) {
+            final RowItem item = new RowItem(entry);
+            item.version = entry.mVersion;
+            if (mGrouped) {
+                joinSection(item);
+            }
+            final int index = indexOfInsertion(item);
+            mItems.add(index, item);
+            mItemsById.put(entry.ID, item);
+            invalidateIndices(index);
+            requestLayout();
+        }
+
+        void removeItem(RowItem item) {
+            removeItem(indexOf(item));
+        }
+
+        void removeItem(int index) {
+            final RowItem item = mItems.remove(index);
+            invalidateIndices(index);
+            mItemsById.remove(item.entry.ID);
+            if (item.row != null) {
+                unbind(item);
+            }
+            if (item.section != null) {
+                leaveSection(item);
+            }
+            requestLayout();
+            invalidate();
+        }
+
+        /**
+         * Replace the notification of an item, which was sent again. The item
+         * is bound again, and should then be moved.
+         *
+         * @param item
+         * @param entry
+         */
+        void renewItem(RowItem item, NotificationEntry entry) {
+            if (item.row != null) {
+                unbind(item);
+            }
+            item.entry = entry;
+            item.height = 0;
+            requestLayout();
+        }
+
+        /**
+         * Move an item to its position, after its notification is updated.
+         * The other items are left untouched.
+         *
+         * @param item
+         * @param renewed the notification was sent again, it goes on top of
+         *                the items equal to it, as a new one.
+         * @return boolean whether the item has moved.
+         */
+        boolean moveItem(RowItem item, boolean renewed) {
+            if (mGrouped && !TextUtils.equals(item.section.tag, item.entry.tag)) {
+                leaveSection(item);
+                joinSection(item);
+                requestLayout();
+            } else if (mComparator == null && !renewed) {
+                return false;
+            }
+
+            item.version = item.entry.mVersion;
+            final int from = indexOf(item);
+            final int last = mItems.size() - 1;
+            if (!renewed && (from == 0 || mItemOrder.compare(mItems.get(from - 1), item) <= 0) &&
+                (from == last || mItemOrder.compare(item, mItems.get(from + 1)) <= 0)) {
+                // still in order.
+                return false;
+            }
+
+            mItems.remove(from);
+            final int to = indexOfInsertion(item);
+            if (to == from) {
+                mItems.add(to, item);
+                return false;
+            }
+            if (DBG) Log.v(TAG, "moveItem - " + item.entry.ID + ", " + from + " -> " + to);
+            mItems.add(to, item);
+            // only the items in between have shifted.
+            for (int i = Math.min(from, to), end = Math.max(from, to); i <= end; i++) {
+                mItems.get(i).index = i;
+            }
+            requestLayout();
+            invalidate();
+            return true;
+        }
+
+        /**
+         * Sort all the items. The items equal to each other keep their order.
+         */
+        void sortItems() {
+            Collections.sort(mItems, mItemOrder);
+            invalidateIndices(0);
+            requestLayout();
+            invalidate();
+        }
+
+        void setComparator(Comparator<NotificationEntry> comparator) {
+            if (mComparator != comparator) {
+                mComparator = comparator;
+                if (comparator != null) {
+                    sortItems();
+                }
+            }
+        }
+
+        Comparator<NotificationEntry> getComparator() {
+            return mComparator;
+        }
+
+        private void joinSection(RowItem item) {
+            Section section = mSections.get(item.entry.tag);
+            if (section == null) {
+                section = addSection(item.entry.tag);
+                section.order = ++mSectionOrder;
+            }
+            section.count++;
+            markSectionDirty(section);
+            item.section = section;
+        }
+
+        private void leaveSection(RowItem item) {
+            final Section section = item.section;
+            item.section = null;
+            if (--section.count == 0) {
+                removeSection(section);
+            } else {
+                markSectionDirty(section);
+            }
+        }
+
+        boolean isGrouped() {
+            return mGrouped;
+        }
+
+        /**
+         * Group the rows by tag. The sections take the order of their top most
+         * row at this time, and the rows keep their order within a section.
+         * Later, a new section goes on top, and a section does not move when
+         * a row joins it.
+         *
+         * @param grouped
+         */
+        void setGrouped(boolean grouped) {
+            if (mGrouped == grouped) {
+                return;
+            }
+
+            if (DBG) Log.v(TAG, "setGrouped - " + grouped);
+            mGrouped = grouped;
+            for (Section section : mSections.values()) {
+                removeViewInLayout(section.header);
+            }
+            mSections.clear();
+
+            final ArrayList<Section> sections = new ArrayList<Section>();
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                item.section = null;
+                if (grouped) {
+                    Section section = mSections.get(item.entry.tag);
+                    if (section == null) {
+                        section = addSection(item.entry.tag);
+                        sections.add(section);
+                    }
+                    section.count++;
+                    item.section = section;
+                }
+            }
+
+            if (grouped) {
+                final int count = sections.size();
+                for (int i = 0; i < count; i++) {
+                    sections.get(i).order = mSectionOrder + count - i;
+                }
+                mSectionOrder += count;
+                // stable, keeps the order within the sections.
+                Collections.sort(mItems, mItemOrder);
+                invalidateIndices(0);
+            }
+            requestLayout();
+            invalidate();
+        }
+
+        Section getSection(String tag) {
+            return mSections.get(tag);
+        }
+
+        int getSectionCount() {
+            return mSections.size();
+        }
+
+        void setSectionCollapsed(Section section, boolean collapsed) {
+            if (section.collapsed != collapsed) {
+                if (DBG) Log.v(TAG, "setSectionCollapsed - " + section.tag + ", " + collapsed);
+                section.collapsed = collapsed;
+                markSectionDirty(section);
+                requestLayout();
+                invalidate();
+            }
+        }
+
+        private Section addSection(String tag) {
+            final Section section = new Section(tag);
+            section.header = makeSectionHeaderView(section);
+            markSectionDirty(section);
+            mSections.put(tag, section);
+            addViewInLayout(section.header, -1, makeSectionLayoutParams(section.header), true);
+            return section;
+        }
+
+        // the changes of a frame are merged, a header is updated once per frame.
+        private void markSectionDirty(Section section) {
+            section.dirty = true;
+            mFrames.post(MSG_UPDATE_SECTIONS, 0, null);
+        }
+
+        void updateSections() {
+            for (Section section : mSections.values()) {
+                if (section.dirty) {
+                    section.dirty = false;
+                    updateSectionHeader(section);
+                }
+            }
+        }
+
+        private void removeSection(Section section) {
+            if (DBG) Log.v(TAG, "removeSection - " + section.tag);
+            mSections.remove(section.tag);
+            removeViewInLayout(section.header);
+        }
+
+        // the first item not ordered before the item.
+        private int indexOfInsertion(RowItem item) {
+            int lo = 0;
+            int hi = mItems.size() - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (mItemOrder.compare(mItems.get(mid), item) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        // the sections if grouped, then the comparator. equal without comparator,
+        // so that the newest goes on top.
+        private final Comparator<RowItem> mItemOrder = new Comparator<RowItem>() {
+
+                @Override
+                public int compare(RowItem lhs, RowItem rhs) {
+                    if (mGrouped && lhs.section != rhs.section) {
+                        return rhs.section.order - lhs.section.order;
+                    }
+                    return mComparator != null ? mComparator.compare(lhs.entry, rhs.entry) : 0;
+                }
+            };
+
+        private MarginLayoutParams makeSectionLayoutParams(View header) {
+            final ViewGroup.LayoutParams p = header.getLayoutParams();
+            final MarginLayoutParams lp = p instanceof MarginLayoutParams ?
+                (MarginLayoutParams) p : (MarginLayoutParams) generateDefaultLayoutParams();
+            lp.leftMargin = mRowMargin[0];
+            lp.rightMargin = mRowMargin[2];
+            return lp;
+        }
+
+        private void measureSection(Section section, int widthMeasureSpec,
+                                    int heightMeasureSpec, boolean widthChanged) {
+            final View header = section.header;
+            if (widthChanged || section.height == 0 || header.isLayoutRequested()) {
+                final MarginLayoutParams lp = (MarginLayoutParams) header.getLayoutParams();
+                measureChildWithMargins(header, widthMeasureSpec, 0, heightMeasureSpec, 0);
+                section.height = header.getMeasuredHeight() + lp.topMargin + lp.bottomMargin;
+            }
+        }
+
+        // the tops of the items are ascending, search the first item below pos.
+        View findRowViewAt(int pos) {
+            if (isLayoutRequested()) {
+                // the tops of the items added or moved since the last pass are
+                // stale, hit the row views where they are drawn.
+                for (int i = 0, count = getChildCount(); i < count; i++) {
+                    final View child = getChildAt(i);
+                    if (child instanceof RowView && child.getVisibility() == VISIBLE &&
+                        child.getTop() <= pos && pos < child.getBottom()) {
+                        return child;
+                    }
+                }
+                return null;
+            }
+
+            int lo = 0;
+            int hi = mItems.size() - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final RowItem item = mItems.get(mid);
+                if (item.top + getItemExtent(item) > pos) {
+                    hi = mid - 1;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            if (lo == mItems.size()) {
+                return null;
+            }
+            // not on a section header.
+            final RowItem item = mItems.get(lo);
+            return item.top - mDividerHeight <= pos ? item.row : null;
+        }
+
+        void onScrollChanged(int scrollY) {
+            // the bound rows cover the prefetch distance, rebind once half of it is scrolled.
+            if (Math.abs(scrollY - mLayoutScrollY) * 2 >= getActivePrefetchDistance()) {
+                requestLayout();
+            }
+        }
+
+        void clearScrap() {
+            mScrap.clear();
+        }
+
+        // bound again in the next pass, to a row view of its current type.
+        void rebind(RowItem item) {
+            unbind(item);
+            item.height = 0;
+            requestLayout();
+        }
+
+        // all rows are bound again, to row views made from now on.
+        void rebindAll() {
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                item.height = 0;
+                if (item.row != null && !item.row.isBusy()) {
+                    unbind(item);
+                }
+            }
+            mScrap.clear();
+            requestLayout();
+        }
+
+        private int getItemHeight(RowItem item) {
+            return item.height > 0 ? item.height : mEstimatedHeight;
+        }
+
+        private int getItemExtent(RowItem item) {
+            return item.isCollapsed() ? 0 : getItemHeight(item);
+        }
+
+        private RowView obtainRowView(NotificationEntry entry) {
+            final int viewType = getRowViewType(entry);
+            final ArrayList<RowView> scrap = mScrap.get(viewType);
+            RowView rowView;
+            if (scrap == null || scrap.isEmpty()) {
+                mPoolMisses++;
+                rowView = makeRowView(entry, viewType);
+                rowView.mViewType = viewType;
+            } else {
+                mPoolHits++;
+                rowView = scrap.remove(scrap.size() - 1);
+                rowView.bind(entry);
+            }
+            return rowView;
+        }
+
+        private void recycleRowView(RowView rowView) {
+            if (rowView.isFlat() && rowView.mRenderer != mFlatRowRenderer) {
+                // drawn by a renderer no longer set.
+                return;
+            }
+            ArrayList<RowView> scrap = mScrap.get(rowView.mViewType);
+            if (scrap == null) {
+                scrap = new ArrayList<RowView>();
+                mScrap.put(rowView.mViewType, scrap);
+            }
+            scrap.add(rowView);
+        }
+
+        private void bind(RowItem item) {
+            if (DBG) Log.v(TAG, "bind - " + item.entry.ID);
+            final RowView rowView = obtainRowView(item.entry);
+            item.row = rowView;
+            addViewInLayout(rowView, -1, rowView.makeLayoutParams(), true);
+            onRowViewBound(rowView);
+        }
+
+        private void unbind(RowItem item) {
+            final RowView rowView = item.row;
+            if (DBG) Log.v(TAG, "unbind - " + item.entry.ID);
+            item.row = null;
+            removeViewInLayout(rowView);
+            onRowViewUnbound(rowView);
+            recycleRowView(rowView);
+        }
+
+        void resetPageCursor() {
+            mPageCursor = 0;
+        }
+
+        /**
+         * Measure the heights of a page of the rows never bound, with row views
+         * from the pool which are not attached. Each pass goes on from where
+         * the last one stopped. The add/remove callbacks are not called, the
+         * rows are not shown.
+         *
+         * @param count
+         * @return boolean whether rows remain not measured.
+         */
+        boolean measurePage(int count) {
+            if (mWidthMeasureSpec == 0) {
+                // not measured yet.
+                return true;
+            }
+
+            final int childHeightMeasureSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+            int measured = 0;
+            boolean remains = false;
+            int i = Math.min(mPageCursor, mItems.size());
+            for (int size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                if (item.height > 0 || item.row != null || item.isCollapsed()) {
+                    continue;
+                }
+                if (measured == count) {
+                    remains = true;
+                    break;
+                }
+
+                final RowView rowView = obtainRowView(item.entry);
+                final MarginLayoutParams lp = rowView.makeLayoutParams();
+                rowView.setLayoutParams(lp);
+                // bound as a visible row would be, actions included, then unbound.
+                onRowViewBound(rowView);
+                measureChildWithMargins(rowView, mWidthMeasureSpec, 0, childHeightMeasureSpec, 0);
+                item.height = rowView.getMeasuredHeight() + lp.topMargin + lp.bottomMargin;
+                onRowViewUnbound(rowView);
+                recycleRowView(rowView);
+                measured++;
+            }
+            mPageCursor = i;
+
+            if (DBG) Log.v(TAG, "measurePage - " + measured + ", remains=" + remains);
+            if (measured > 0) {
+                requestLayout();
+            }
+            return remains;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final int scrollY = ((View) getParent()).getScrollY();
+            final int prefetch = getActivePrefetchDistance();
+            final int windowTop = scrollY - prefetch;
+            final int windowBottom = scrollY + mBody.getSuggestedHeight() + prefetch;
+            final int childHeightMeasureSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+            final boolean widthChanged = widthMeasureSpec != mWidthMeasureSpec;
+            mWidthMeasureSpec = widthMeasureSpec;
+
+            int y = getPaddingTop();
+            boolean first = true;
+            Section section = null;
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                item.index = i;
+                if (item.section != section) {
+                    section = item.section;
+                    if (!first) {
+                        y += mDividerHeight;
+                    }
+                    first = false;
+                    section.top = y;
+                    measureSection(section, widthMeasureSpec, childHeightMeasureSpec, widthChanged);
+                    y += section.height;
+                }
+
+                if (item.isCollapsed()) {
+                    item.top = y;
+                    if (item.row != null && !item.row.isBusy()) {
+                        unbind(item);
+                    }
+                    continue;
+                }
+
+                if (!first) {
+                    y += mDividerHeight;
+                }
+                first = false;
+                item.top = y;
+
+                final boolean visible = y + getItemHeight(item) > windowTop && y < windowBottom;
+                if (visible || (item.row != null && item.row.isBusy())) {
+                    boolean dirty = widthChanged || item.height == 0;
+                    if (item.row == null) {
+                        bind(item);
+                        dirty = true;
+                    }
+                    final RowView rowView = item.row;
+                    if (dirty || rowView.isLayoutRequested()) {
+                        // only the rows bound or changed since the last pass are measured.
+                        final MarginLayoutParams lp = (MarginLayoutParams) rowView.getLayoutParams();
+                        measureChildWithMargins(rowView, widthMeasureSpec, 0, childHeightMeasureSpec, 0);
+                        item.height = rowView.getMeasuredHeight() + lp.topMargin + lp.bottomMargin;
+                        mEstimatedHeight = item.height;
+                    }
+                } else if (item.row != null) {
+                    unbind(item);
+                }
+                y += getItemHeight(item);
+            }
+            y += getPaddingBottom();
+
+            mStaleIndex = Integer.MAX_VALUE;
+            mLayoutScrollY = scrollY;
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), resolveSize(y, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            final int left = getPaddingLeft();
+            for (Section section : mSections.values()) {
+                final View header = section.header;
+                final MarginLayoutParams lp = (MarginLayoutParams) header.getLayoutParams();
+                final int childLeft = left + lp.leftMargin;
+                final int childTop = section.top + lp.topMargin;
+                header.layout(childLeft, childTop,
+                              childLeft + header.getMeasuredWidth(),
+                              childTop + header.getMeasuredHeight());
+            }
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                final RowView rowView = item.row;
+                if (rowView != null) {
+                    final MarginLayoutParams lp = (MarginLayoutParams) rowView.getLayoutParams();
+                    final int childLeft = left + lp.leftMargin;
+                    final int childTop = item.top + lp.topMargin;
+                    rowView.layout(childLeft, childTop,
+                                   childLeft + rowView.getMeasuredWidth(),
+                                   childTop + rowView.getMeasuredHeight());
+                }
+            }
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (mDivider == null) {
+                return;
+            }
+
+            final int left = getPaddingLeft();
+            final int right = getWidth() - getPaddingRight();
+            final int top = getPaddingTop() + mDividerHeight;
+            for (Section section : mSections.values()) {
+                if (section.top >= top) {
+                    mDivider.setBounds(left, section.top - mDividerHeight, right, section.top);
+                    mDivider.draw(canvas);
+                }
+            }
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                final RowItem item = mItems.get(i);
+                if (item.row != null && item.top >= top && !item.isCollapsed()) {
+                    mDivider.setBounds(left, item.top - mDividerHeight, right, item.top);
+                    mDivider.draw(canvas);
+                }
+            }
+        }
+
+        @Override
+        protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+            return p instanceof MarginLayoutParams;
+        }
+
+        @Override
+        protected ViewGroup.LayoutParams generateDefaultLayoutParams() {
+            return new MarginLayoutParams(MarginLayoutParams.MATCH_PARENT, MarginLayoutParams.WRAP_CONTENT);
+        }
+
+        @Override
+        protected ViewGroup.LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+            return new MarginLayoutParams(p);
+        }
+
+        @Override
+        public ViewGroup.LayoutParams generateLayoutParams(AttributeSet attrs) {
+            return new MarginLayoutParams(getContext(), attrs);
+        }
+    }
+
     private static final int MSG_REMOVE_ROW_VIEW = 0;
     private static final int MSG_CLOSE = 1;
 
     private H mH;
 
+    // progress updates are merged, and applied at the start of a frame.
+    private static final int MSG_UPDATE_PROGRESS = 0;
+    // arrivals and cancels of a frame are applied together.
+    private static final int MSG_UPDATE_PENDINGS = 1;
+    // the headers of the sections changed since the last frame are updated.
+    private static final int MSG_UPDATE_SECTIONS = 2;
+
+    private FrameScheduler mFrames;
+
+    private final FrameScheduler.Callback mFrameCallback = new FrameScheduler.Callback() {
+
+            @Override
+            public void onFrameMessage(int what, int arg1, Object obj) {
+                switch (what) {
+                case MSG_UPDATE_PROGRESS:
+                    onFrameUpdateProgress();
+                    break;
+
+                case MSG_UPDATE_SECTIONS:
+                    mContainer.updateSections();
+                    break;
+
+                case MSG_UPDATE_PENDINGS:
+                    synchronized (mLock) {
+                        if (mShowing && !mClosing && !mAnimating && !mScrolling) {
+                            // arrivals wait while rows are being removed.
+                            updatePendings(!mPaused);
+                        }
+                    }
+                    break;
+                }
+            }
+        };
+
     private void cancel(int what) {
         if (what == -1) {
             mH.removeCallbacksAndMessages(null);
@@ -2753,7 +4299,7 @@ public class NotificationBoard extends FrameLayout
 
             switch (msg.what) {
             case MSG_REMOVE_ROW_VIEW:
-                b.dismissRowView((RowView) msg.obj, msg.arg1 == 1);
+                b.dismissRowView((NotificationEntry) msg.obj, msg.arg1 == 1);
                 break;
 
             case MSG_CLOSE:
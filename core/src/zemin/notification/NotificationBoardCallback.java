@@ -21,8 +21,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.ImageView;
-import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import java.util.ArrayList;
@@ -38,6 +36,9 @@ public class NotificationBoardCallback {
     private static final String TAG = "zemin.NotificationBoardCallback";
     public static boolean DBG;
 
+    // whether the update of the changed fields only is used, null if unknown yet.
+    private Boolean mPartialUpdate;
+
     /**
      * Called only once after this callback is set.
      *
@@ -93,6 +94,10 @@ public class NotificationBoardCallback {
      * Called to instantiate a view being placed in the row view,
      * which is the user interface for the incoming notification.
      *
+     * The row views are recycled, the view may later be bound to other
+     * notifications of the same {@link #getRowViewType} by {@link #onRowViewAdded}
+     * and {@link #onRowViewUpdate}.
+     *
      * @param board
      * @param entry
      * @param inflater
@@ -104,7 +109,28 @@ public class NotificationBoardCallback {
     }
 
     /**
-     * Called when a row view is added to the board.
+     * Get the type of the row view of a notification. Row views are only
+     * reused for notifications of the same type, so {@link #makeRowView}
+     * must make the same view for the same type. {@link RowView#VIEW_TYPE_FLAT}
+     * is reserved.
+     *
+     * @see NotificationBoard#setFlatRowRenderer
+     *
+     * @param board
+     * @param entry
+     * @return int
+     */
+    public int getRowViewType(NotificationBoard board, NotificationEntry entry) {
+        return 0;
+    }
+
+    /**
+     * Called when a row view is bound to a notification, as it comes into
+     * the visible area of the board. Not called for the rows drawn by
+     * {@link FlatRowRenderer}, neither are the other row view callbacks.
+     *
+     * A row out of the visible area may also be bound, updated and unbound
+     * at once, to be measured while the board is idle.
      *
      * @param board
      * @param rowView
@@ -113,36 +139,56 @@ public class NotificationBoardCallback {
     public void onRowViewAdded(NotificationBoard board, RowView rowView, NotificationEntry entry) {
         if (DBG) Log.v(TAG, "onRowViewAdded - " + entry.ID);
 
-        if (entry.hasActions()) {
-            ArrayList<Action> actions = entry.getActions();
-            ViewGroup vg = (ViewGroup) rowView.findViewById(R.id.actions);
-            vg.setVisibility(View.VISIBLE);
-            vg = (ViewGroup) vg.getChildAt(0);
+        bindActions(rowView, entry);
+    }
 
-            final View.OnClickListener onClickListener = new View.OnClickListener() {
+    private void bindActions(RowView rowView, NotificationEntry entry) {
+        ViewGroup vg = (ViewGroup) rowView.getBinder().getView(NotificationBinder.ACTIONS);
+        if (vg == null) {
+            return;
+        }
 
-                    @Override
-                    public void onClick(View view) {
-                        Action act = (Action) view.getTag();
-                        onClickActionView(act.entry, act, view);
-                        act.execute(view.getContext());
-                    }
-                };
-
-            for (int i = 0, count = actions.size(); i < count; i++) {
-                Action act = actions.get(i);
-                Button actionBtn = (Button) vg.getChildAt(i);
-                actionBtn.setVisibility(View.VISIBLE);
-                actionBtn.setTag(act);
-                actionBtn.setText(act.title);
-                actionBtn.setOnClickListener(onClickListener);
-                actionBtn.setCompoundDrawablesWithIntrinsicBounds(act.icon, 0, 0, 0);
-            }
+        if (!entry.hasActions()) {
+            // the row view may have been bound to another notification.
+            vg.setVisibility(View.GONE);
+            return;
+        }
+
+        ArrayList<Action> actions = entry.getActions();
+        vg.setVisibility(View.VISIBLE);
+        vg = (ViewGroup) vg.getChildAt(0);
+
+        final View.OnClickListener onClickListener = new View.OnClickListener() {
+
+                @Override
+                public void onClick(View view) {
+                    Action act = (Action) view.getTag();
+                    onClickActionView(act.entry, act, view);
+                    act.execute(view.getContext());
+                }
+            };
+
+        for (int i = 0, count = actions.size(); i < count; i++) {
+            Action act = actions.get(i);
+            Button actionBtn = (Button) vg.getChildAt(i);
+            actionBtn.setVisibility(View.VISIBLE);
+            actionBtn.setTag(act);
+            actionBtn.setText(act.title);
+            actionBtn.setOnClickListener(onClickListener);
+            actionBtn.setCompoundDrawablesWithIntrinsicBounds(act.icon, 0, 0, 0);
+        }
+
+        for (int i = actions.size(), count = vg.getChildCount(); i < count; i++) {
+            View actionBtn = vg.getChildAt(i);
+            actionBtn.setVisibility(View.GONE);
+            actionBtn.setTag(null);
+            actionBtn.setOnClickListener(null);
         }
     }
 
     /**
-     * Called when a row view is removed from the board.
+     * Called when a row view is unbound, as it leaves the visible area of the
+     * board or its notification is removed. It may be bound again later.
      *
      * @param board
      * @param rowView
@@ -162,38 +208,100 @@ public class NotificationBoardCallback {
     public void onRowViewUpdate(NotificationBoard board, RowView rowView, NotificationEntry entry) {
         if (DBG) Log.v(TAG, "onRowViewUpdate - " + entry.ID);
 
-        ImageView iconView = (ImageView) rowView.findViewById(R.id.icon);
-        TextView titleView = (TextView) rowView.findViewById(R.id.title);
-        TextView textView = (TextView) rowView.findViewById(R.id.text);
-        TextView whenView = (TextView) rowView.findViewById(R.id.when);
-        ProgressBar bar = (ProgressBar) rowView.findViewById(R.id.progress);
-
-        if (entry.iconDrawable != null) {
-            iconView.setImageDrawable(entry.iconDrawable);
-        } else if (entry.smallIconRes != 0) {
-            iconView.setImageResource(entry.smallIconRes);
-        } else if (entry.largeIconBitmap != null) {
-            iconView.setImageBitmap(entry.largeIconBitmap);
+        rowView.getBinder().bind(entry);
+    }
+
+    /**
+     * Whether {@link #onRowViewUpdate(NotificationBoard, RowView, NotificationEntry, int)}
+     * may bind only the changed fields. By default, it is true unless
+     * {@link #onRowViewUpdate(NotificationBoard, RowView, NotificationEntry)}
+     * is overridden, so that an override still sees every update.
+     *
+     * @return boolean
+     */
+    public boolean supportsPartialUpdate() {
+        if (mPartialUpdate == null) {
+            mPartialUpdate = !Utils.isOverridden(
+                this, NotificationBoardCallback.class, "onRowViewUpdate",
+                NotificationBoard.class, RowView.class, NotificationEntry.class);
         }
+        return mPartialUpdate;
+    }
 
-        titleView.setText(entry.title);
-        textView.setText(entry.text);
+    /**
+     * Called when a row view is being updated. By default, only the changed
+     * fields are bound, and it falls back to
+     * {@link #onRowViewUpdate(NotificationBoard, RowView, NotificationEntry)}
+     * if all fields changed or {@link #supportsPartialUpdate} is false.
+     *
+     * @param board
+     * @param rowView
+     * @param entry
+     * @param changes the changed fields, {@link NotificationEntry#FIELD_ICON}, ...
+     */
+    public void onRowViewUpdate(NotificationBoard board, RowView rowView, NotificationEntry entry,
+                                int changes) {
+        if (changes == NotificationEntry.FIELD_ALL || !supportsPartialUpdate()) {
+            onRowViewUpdate(board, rowView, entry);
+            return;
+        }
+
+        if (DBG) Log.v(TAG, "onRowViewUpdate - " + entry.ID + ", changes=" + changes);
 
-        if (entry.showWhen) {
-            whenView.setText(entry.whenFormatted);
+        rowView.getBinder().bind(entry, changes);
+        if ((changes & NotificationEntry.FIELD_ACTIONS) != 0) {
+            bindActions(rowView, entry);
         }
+    }
+
+    /**
+     * Called to instantiate the header of a section, when the rows are
+     * grouped by {@link NotificationEntry#tag}.
+     *
+     * @see NotificationBoard#setGroupByTag
+     *
+     * @param board
+     * @param tag
+     * @param inflater
+     * @return View
+     */
+    public View makeSectionHeaderView(NotificationBoard board, String tag, LayoutInflater inflater) {
+
+        return inflater.inflate(R.layout.notification_board_section, null, false);
+    }
 
-        if (entry.progressMax != 0 || entry.progressIndeterminate) {
-            bar.setVisibility(View.VISIBLE);
-            bar.setIndeterminate(entry.progressIndeterminate);
-            if (!entry.progressIndeterminate) {
-                bar.setMax(entry.progressMax);
-                bar.setProgress(entry.progress);
-            }
-        } else {
-            bar.setVisibility(View.GONE);
+    /**
+     * Called when the count or the collapsed state of a section has changed.
+     *
+     * @param board
+     * @param header
+     * @param tag
+     * @param count number of notifications in the section.
+     * @param collapsed
+     */
+    public void onSectionHeaderUpdate(NotificationBoard board, View header, String tag,
+                                      int count, boolean collapsed) {
+        if (DBG) Log.v(TAG, "onSectionHeaderUpdate - " + tag + ", count=" + count +
+                       ", collapsed=" + collapsed);
+
+        if (header instanceof TextView) {
+            ((TextView) header).setText((collapsed ? "\u25b8 " : "\u25be ") +
+                                        (tag != null ? tag : "") + " (" + count + ")");
         }
+    }
+
+    /**
+     * Called when the header of a section has been clicked. By default, the
+     * section is collapsed or expanded.
+     *
+     * @param board
+     * @param header
+     * @param tag
+     */
+    public void onClickSectionHeader(NotificationBoard board, View header, String tag) {
+        if (DBG) Log.v(TAG, "onClickSectionHeader - " + tag);
 
+        board.setSectionCollapsed(tag, !board.isSectionCollapsed(tag));
     }
 
     /**
@@ -78,10 +78,41 @@ public class NotificationCenter {
     }
 
     void send(NotificationEntry entry) {
+        if (entry.iconUri != null && entry.iconDrawable == null) {
+            // start decoding now, the icon will probably be ready when displayed.
+            NotificationIconLoader.getInstance(mContext).request(entry.iconUri, 0, 0, null);
+        }
         entry.requestSend();
         updateEntryState(entry);
     }
 
+    void updateProgress(int entryId, int progress, int max) {
+        final NotificationEntry entry = getEntry(entryId);
+        if (entry == null) {
+            Log.e(TAG, "failed to get NotificationEntry for id=" + entryId);
+            return;
+        }
+
+        synchronized (entry.mLock) {
+            entry.progress = progress;
+            entry.progressMax = max;
+            entry.progressIndeterminate = false;
+            entry.mVersion++;
+        }
+
+        if (!mActives.hasEntry(entryId)) {
+            // not delivered yet, the latest progress goes out with it.
+            return;
+        }
+
+        for (NotificationHandler h : mHandlers)
+            h.onProgressRequested(entry);
+
+        if (entry.mSendToListener && !mH.hasMessages(MSG_PROGRESS, entry)) {
+            schedule(MSG_PROGRESS, 0, 0, entry, 0);
+        }
+    }
+
     void cancel(int entryId) {
         if (mActives.cancel(entryId) || mPendings.cancel(entryId)) {
             return;
@@ -334,8 +365,9 @@ public class NotificationCenter {
     }
 
     private void onUpdateRequested(NotificationEntry entry) {
+        final int changes = entry.mUpdateFields;
         for (NotificationHandler h : mHandlers)
-            h.onUpdateRequested(entry);
+            h.onUpdateRequested(entry, changes);
     }
 
     private void onCancelRequested(NotificationEntry entry) {
@@ -385,8 +417,10 @@ public class NotificationCenter {
     }
 
     private void updateEntry(NotificationEntry entry) {
+        final int changes = entry.mUpdateFields;
+        entry.mUpdateFields = 0;
         if (entry.mSendToListener) {
-            schedule(MSG_UPDATE, 0, 0, entry, 0);
+            schedule(MSG_UPDATE, changes, 0, entry, 0);
         }
     }
 
@@ -473,6 +507,7 @@ public class NotificationCenter {
     private static final int MSG_ARRIVAL = 0;
     private static final int MSG_CANCEL  = 1;
     private static final int MSG_UPDATE  = 2;
+    private static final int MSG_PROGRESS = 3;
     private final H mH;
 
     private void schedule(int what, int delay) {
@@ -514,9 +549,19 @@ public class NotificationCenter {
                 break;
 
             case MSG_UPDATE:
+                entry.mUpdatedFields = msg.arg1;
                 for (NotificationListener l : c.mListeners) {
                     l.onUpdate(entry);
                 }
+                break;
+
+            case MSG_PROGRESS:
+                for (NotificationListener l : c.mListeners) {
+                    if (l instanceof NotificationListener.ProgressListener) {
+                        ((NotificationListener.ProgressListener) l).onProgress(entry);
+                    }
+                }
+                break;
             }
         }
     }
@@ -118,6 +118,20 @@ public class NotificationDelegater {
         if (mEnabled) CENTER.send(entry);
     }
 
+    /**
+     * Update the progress of a sent notification. Unlike {@link #send}, no effect
+     * is played, and only the progress bar is redrawn, at most once per frame.
+     *
+     * @see NotificationEntry#setProgress
+     *
+     * @param entryId
+     * @param progress
+     * @param max
+     */
+    public void updateProgress(int entryId, int progress, int max) {
+        if (mEnabled) CENTER.updateProgress(entryId, progress, max);
+    }
+
     /**
      * Cancel notification.
      *
@@ -315,6 +329,14 @@ public class NotificationDelegater {
             ViewWrapper.DBG =
             ViewSwitcherWrapper.DBG =
             ChildViewManager.DBG =
+            FrameScheduler.DBG =
+            NotificationBinder.DBG =
+            NotificationIconLoader.DBG =
+            TransitionMetrics.DBG =
+            TextLayoutCache.DBG =
+            NotificationTextView.DBG =
+            ViewTransition.DBG =
+            FlatRowRenderer.DBG =
             DBG = debug;
     }
 
@@ -55,6 +55,20 @@ public class NotificationEntry {
      */
     public static final String KEY_EXTRA = "key_extra_bundle";
 
+    /**
+     * Fields changed by an update. Field i of {@link NotificationBinder} is bit (1 << i).
+     *
+     * @see #getUpdatedFields
+     */
+    public static final int FIELD_ICON       = 1 << NotificationBinder.ICON;
+    public static final int FIELD_TITLE      = 1 << NotificationBinder.TITLE;
+    public static final int FIELD_TEXT       = 1 << NotificationBinder.TEXT;
+    public static final int FIELD_WHEN       = 1 << NotificationBinder.WHEN;
+    public static final int FIELD_PROGRESS   = 1 << NotificationBinder.PROGRESS;
+    public static final int FIELD_ACTIONS    = 1 << NotificationBinder.ACTIONS;
+    public static final int FIELD_BACKGROUND = 1 << NotificationBinder.FIELD_COUNT;
+    public static final int FIELD_ALL        = (FIELD_BACKGROUND << 1) - 1;
+
 
     public final int ID;
     public String tag;
@@ -70,6 +84,7 @@ public class NotificationEntry {
     public int smallIconRes;
     public Bitmap largeIconBitmap;
     public Drawable iconDrawable;
+    public Uri iconUri;
     public CharSequence tickerText;
     public CharSequence title;
     public CharSequence text;
@@ -150,6 +165,31 @@ public class NotificationEntry {
         mSendToListener = send;
     }
 
+    /**
+     * Mark fields as changed, for the next update. Fields are marked by their
+     * setters; call this after modifying the public fields directly.
+     *
+     * If no field is marked when the notification is sent again, all fields
+     * are considered changed.
+     *
+     * @param fields {@link #FIELD_ICON}, {@link #FIELD_TITLE}, ...
+     */
+    public void markChanged(int fields) {
+        synchronized (mLock) {
+            mDirty |= fields;
+        }
+    }
+
+    /**
+     * Get the fields changed by the update being delivered.
+     * Only valid in {@link NotificationListener#onUpdate}.
+     *
+     * @return int {@link #FIELD_ICON}, {@link #FIELD_TITLE}, ...
+     */
+    public int getUpdatedFields() {
+        return mUpdatedFields != 0 ? mUpdatedFields : FIELD_ALL;
+    }
+
     /**
      * Set tag.
      *
@@ -237,6 +277,7 @@ public class NotificationEntry {
      */
     public void setLayoutId(int resId) {
         this.layoutId = resId;
+        markChanged(FIELD_ALL);
     }
 
     /**
@@ -250,6 +291,7 @@ public class NotificationEntry {
      */
     public void setBackgroundColor(int color) {
         this.backgroundColor = color;
+        markChanged(FIELD_BACKGROUND);
     }
 
     /**
@@ -263,6 +305,7 @@ public class NotificationEntry {
      */
     public void setBackgroundAlpha(int alpha) {
         this.backgroundAlpha = alpha;
+        markChanged(FIELD_BACKGROUND);
     }
 
     /**
@@ -272,6 +315,7 @@ public class NotificationEntry {
      */
     public void setShowWhen(boolean show) {
         this.showWhen = show;
+        markChanged(FIELD_WHEN);
     }
 
     /**
@@ -281,6 +325,7 @@ public class NotificationEntry {
      */
     public void setWhen(long when) {
         this.whenLong = when;
+        markChanged(FIELD_WHEN);
     }
 
     /**
@@ -294,6 +339,7 @@ public class NotificationEntry {
      */
     public void setWhen(CharSequence when) {
         this.whenFormatted = when;
+        markChanged(FIELD_WHEN);
     }
 
     /**
@@ -309,6 +355,7 @@ public class NotificationEntry {
     public void setWhen(CharSequence format, long when) {
         if (format == null) format = DEFAULT_DATE_FORMAT;
         this.whenFormatted = DateFormat.format(format, when);
+        markChanged(FIELD_WHEN);
     }
 
     /**
@@ -318,6 +365,7 @@ public class NotificationEntry {
      */
     public void setSmallIconResource(int resId) {
         this.smallIconRes = resId;
+        markChanged(FIELD_ICON);
     }
 
     /**
@@ -330,6 +378,7 @@ public class NotificationEntry {
      */
     public void setLargeIconBitmap(Bitmap bitmap) {
         this.largeIconBitmap = bitmap;
+        markChanged(FIELD_ICON);
     }
 
     /**
@@ -343,6 +392,46 @@ public class NotificationEntry {
      */
     public void setIconDrawable(Drawable drawable) {
         this.iconDrawable = drawable;
+        markChanged(FIELD_ICON);
+    }
+
+    /**
+     * Set icon resource. The icon is decoded in background, and shared through
+     * {@link NotificationIconLoader}. Ignored if the icon drawable is set.
+     *
+     * @param context
+     * @param resId
+     */
+    public void setIcon(Context context, int resId) {
+        if (resId > 0) {
+            this.iconUri = Uri.parse("android.resource://" +
+                context.getPackageName() + "/" + resId);
+            markChanged(FIELD_ICON);
+        }
+    }
+
+    /**
+     * Set icon uri (file or content). The icon is decoded in background, and
+     * shared through {@link NotificationIconLoader}. Ignored if the icon drawable is set.
+     *
+     * @param uri
+     */
+    public void setIcon(Uri uri) {
+        this.iconUri = uri;
+        markChanged(FIELD_ICON);
+    }
+
+    /**
+     * Set icon file path. The icon is decoded in background, and shared through
+     * {@link NotificationIconLoader}. Ignored if the icon drawable is set.
+     *
+     * @param filepath
+     */
+    public void setIcon(String filepath) {
+        if (filepath != null) {
+            this.iconUri = Uri.fromFile(new File(filepath));
+            markChanged(FIELD_ICON);
+        }
     }
 
     /**
@@ -355,6 +444,7 @@ public class NotificationEntry {
      */
     public void setTicker(CharSequence tickerText) {
         this.tickerText = tickerText;
+        markChanged(FIELD_TEXT);
     }
 
     /**
@@ -364,6 +454,7 @@ public class NotificationEntry {
      */
     public void setTitle(CharSequence title) {
         this.title = title;
+        markChanged(FIELD_TITLE);
     }
 
     /**
@@ -373,6 +464,7 @@ public class NotificationEntry {
      */
     public void setText(CharSequence text) {
         this.text = text;
+        markChanged(FIELD_TEXT);
     }
 
     /**
@@ -388,6 +480,7 @@ public class NotificationEntry {
         this.progressMax = max;
         this.progress = progress;
         this.progressIndeterminate = indeterminate;
+        markChanged(FIELD_PROGRESS);
     }
 
     /**
@@ -583,6 +676,7 @@ public class NotificationEntry {
         }
         act.entry = this;
         mActions.add(act);
+        markChanged(FIELD_ACTIONS);
     }
 
     /**
@@ -914,6 +1008,18 @@ public class NotificationEntry {
     boolean mSent;
     boolean contentExecuted;
 
+    // bumped whenever the notification is sent, updated, or its progress changes.
+    int mVersion;
+    // fields changed since the last send.
+    int mDirty;
+    // fields changed by the updates not yet delivered to listeners.
+    int mUpdateFields;
+    // fields changed by the update being delivered to listeners.
+    int mUpdatedFields;
+
+    // precomputed text layouts, guarded by mLock.
+    TextLayoutCache.Record mTextLayouts;
+
     private NotificationEntry(int id) {
         ID = id;
         mPrevFlag = 0;
@@ -924,10 +1030,19 @@ public class NotificationEntry {
 
     void requestSend() {
         if (hasFlag(FLAG_REQUEST_SEND)) {
+            synchronized (mLock) {
+                mUpdateFields |= mDirty != 0 ? mDirty : FIELD_ALL;
+                mDirty = 0;
+                mVersion++;
+            }
             addFlag(FLAG_REQUEST_UPDATE);
             mUpdate = true;
             mUpdates = 0;
         } else {
+            synchronized (mLock) {
+                mDirty = 0;
+                mVersion++;
+            }
             addFlag(FLAG_REQUEST_SEND);
         }
     }
@@ -64,9 +64,19 @@ public class NotificationGlobal extends NotificationHandler {
             super.onContentViewChanged(view, contentView, layoutId);
 
             ChildViewManager mgr = view.getChildViewManager();
-            mgr.setTextColor(TITLE, 0xffffffff);
-            mgr.setTextColor(TEXT, 0xffffffff);
-            mgr.setTextColor(WHEN, 0xffffffff);
+            mgr.setTextColor(ChildViewManager.SLOT_TITLE, 0xffffffff);
+            mgr.setTextColor(ChildViewManager.SLOT_TEXT, 0xffffffff);
+            mgr.setTextColor(ChildViewManager.SLOT_WHEN, 0xffffffff);
+        }
+
+        @Override
+        public void onStackedViewCreated(NotificationView view, View stackedView,
+                                         ChildViewManager mgr, int layoutId) {
+            super.onStackedViewCreated(view, stackedView, mgr, layoutId);
+
+            mgr.setTextColor(ChildViewManager.SLOT_TITLE, 0xffffffff);
+            mgr.setTextColor(ChildViewManager.SLOT_TEXT, 0xffffffff);
+            mgr.setTextColor(ChildViewManager.SLOT_WHEN, 0xffffffff);
         }
     }
 
@@ -217,7 +227,7 @@ public class NotificationGlobal extends NotificationHandler {
     }
 
     @Override
-    protected void onUpdate(NotificationEntry entry) {
+    protected void onUpdate(NotificationEntry entry, int changes) {
         if (mView == null) {
             Log.w(TAG, "NotificationView not found.");
             onUpdateIgnored(entry);
@@ -230,7 +240,14 @@ public class NotificationGlobal extends NotificationHandler {
             return;
         }
 
-        mView.onUpdate(entry);
+        mView.onUpdate(entry, changes);
+    }
+
+    @Override
+    protected void onUpdateProgress(NotificationEntry entry) {
+        if (mView != null && mView.isViewEnabled()) {
+            mView.onUpdateProgress(entry);
+        }
     }
 
     private final class ViewStateListener extends NotificationView.SimpleStateListener {
@@ -64,6 +64,36 @@ public class NotificationHandler extends Handler {
     protected void onUpdate(NotificationEntry entry) {
     }
 
+    /**
+     * Called when a notification is updated. The default calls {@link #onUpdate(NotificationEntry)}.
+     *
+     * @param entry
+     * @param changes the changed fields, {@link NotificationEntry#FIELD_ICON}, ...
+     */
+    protected void onUpdate(NotificationEntry entry, int changes) {
+        onUpdate(entry);
+    }
+
+    /**
+     * Called when only the progress of a notification changes. No effect is
+     * played, and the state of the notification does not change.
+     *
+     * @see NotificationDelegater#updateProgress
+     *
+     * @param entry
+     */
+    protected void onUpdateProgress(NotificationEntry entry) {
+    }
+
+    /**
+     * Progress updates of a notification within this interval are merged.
+     *
+     * @return int milliseconds
+     */
+    protected int getProgressInterval() {
+        return PROGRESS_INTERVAL;
+    }
+
     /**
      * @return Context
      */
@@ -269,6 +299,7 @@ public class NotificationHandler extends Handler {
     public void cancelAll() {
         if (DBG) Log.v(TAG, "prepare to cancel all");
         cancelSchedule(ARRIVE);
+        cancelSchedule(PROGRESS);
         schedule(CANCEL_ALL, 0, 0, null, 0);
     }
 
@@ -289,18 +320,26 @@ public class NotificationHandler extends Handler {
         }
     }
 
-    void onUpdateRequested(NotificationEntry entry) {
+    void onUpdateRequested(NotificationEntry entry, int changes) {
         if (entry.isSentToTarget(ID)) {
             if (mEnabled) {
-                if (DBG) Log.v(TAG, "prepare to update - " + entry.ID);
+                if (DBG) Log.v(TAG, "prepare to update - " + entry.ID + ", changes=" + changes);
                 entry.mEffectConsumers |= ID;
-                schedule(UPDATE, 0, 0, entry, entry.delay);
+                schedule(UPDATE, changes, 0, entry, entry.delay);
             } else {
                 onUpdateIgnored(entry);
             }
         }
     }
 
+    void onProgressRequested(NotificationEntry entry) {
+        if (entry.isSentToTarget(ID) && mEnabled && !entry.isCanceled(ID) &&
+            !hasMessages(ARRIVE, entry) && !hasMessages(PROGRESS, entry)) {
+            // the latest progress is read when the message is handled.
+            schedule(PROGRESS, 0, 0, entry, getProgressInterval());
+        }
+    }
+
     void onCancelRequested(NotificationEntry entry) {
         if (entry.isSentToTarget(ID) && !entry.isCanceled(ID)) {
             if (DBG) Log.v(TAG, "prepare to cancel - " + entry.ID);
@@ -379,17 +418,22 @@ public class NotificationHandler extends Handler {
     protected static final int CANCEL = 1;
     protected static final int CANCEL_ALL = 2;
     protected static final int UPDATE = 3;
+    protected static final int PROGRESS = 4;
+
+    // about a frame.
+    private static final int PROGRESS_INTERVAL = 16;
 
     protected void cancelSchedule(int what) {
         removeMessages(what);
     }
 
     protected void schedule(int what, int arg1, int arg2, Object obj, int delay) {
-        sendMessageDelayed(obtainMessage(what, 0, 0, obj), delay);
+        sendMessageDelayed(obtainMessage(what, arg1, arg2, obj), delay);
     }
 
     protected void dispatchOnArrival(NotificationEntry entry) {
         updateEntryState(entry);
+        TextLayoutCache.getInstance().precompute(entry);
         onArrival(entry);
         updateEntryState(entry);
     }
@@ -407,12 +451,19 @@ public class NotificationHandler extends Handler {
         onCancelAll();
     }
 
-    protected void dispatchOnUpdate(NotificationEntry entry) {
+    protected void dispatchOnUpdate(NotificationEntry entry, int changes) {
         updateEntryState(entry);
-        onUpdate(entry);
+        TextLayoutCache.getInstance().precompute(entry);
+        onUpdate(entry, changes);
         updateEntryState(entry);
     }
 
+    protected void dispatchOnUpdateProgress(NotificationEntry entry) {
+        if (!entry.isCanceled(ID)) {
+            onUpdateProgress(entry);
+        }
+    }
+
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
@@ -426,7 +477,10 @@ public class NotificationHandler extends Handler {
             dispatchOnCancelAll();
             break;
         case UPDATE:
-            dispatchOnUpdate((NotificationEntry) msg.obj);
+            dispatchOnUpdate((NotificationEntry) msg.obj, msg.arg1);
+            break;
+        case PROGRESS:
+            dispatchOnUpdateProgress((NotificationEntry) msg.obj);
             break;
         }
     }
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Decodes notification icons from a resource, file or content {@link android.net.Uri}.
+ *
+ * Icons are decoded on a background thread, downsampled to the size of the
+ * target view, and kept in a memory-bounded LRU cache shared by
+ * {@link NotificationView}, {@link NotificationBoard} and {@link NotificationRemote}.
+ *
+ * @see NotificationEntry#setIcon
+ */
+public class NotificationIconLoader {
+
+    private static final String TAG = "zemin.NotificationIconLoader";
+    public static boolean DBG;
+
+    /**
+     * default icon size, in dp.
+     */
+    public static final int DEFAULT_ICON_SIZE = 64;
+
+    /**
+     * upper bound of the cache size, in bytes.
+     */
+    public static final int MAX_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Get notified when an icon has been decoded.
+     */
+    public interface OnIconLoadedListener {
+
+        /**
+         * Called on the main thread.
+         *
+         * @param uri
+         * @param bitmap null, if failed to decode.
+         */
+        void onIconLoaded(Uri uri, Bitmap bitmap);
+    }
+
+    private static NotificationIconLoader sInstance;
+
+    /**
+     * Get the shared instance.
+     *
+     * @param context
+     * @return NotificationIconLoader
+     */
+    public static NotificationIconLoader getInstance(Context context) {
+        synchronized (NotificationIconLoader.class) {
+            if (sInstance == null) {
+                sInstance = new NotificationIconLoader(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final Context mContext;
+    private final LruCache<String, Icon> mCache;
+    // keyed by uri and size, a larger request does not join a smaller decode.
+    private final ArrayMap<String, ArrayList<OnIconLoadedListener>> mRequests =
+        new ArrayMap<String, ArrayList<OnIconLoadedListener>>();
+    private final H mH;
+    private final int mDefaultSize;
+    private Handler mWorker;
+    private HandlerThread mHT;
+
+    private NotificationIconLoader(Context context) {
+        mContext = context;
+        mH = new H(this);
+        mDefaultSize = (int) (DEFAULT_ICON_SIZE *
+                              context.getResources().getDisplayMetrics().density + 0.5f);
+
+        final int cacheSize = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 16, MAX_CACHE_SIZE);
+        mCache = new LruCache<String, Icon>(cacheSize) {
+
+                @Override
+                protected int sizeOf(String key, Icon icon) {
+                    return icon.bitmap.getRowBytes() * icon.bitmap.getHeight();
+                }
+            };
+    }
+
+    /**
+     * Get the default icon size, in pixels.
+     *
+     * @return int
+     */
+    public int getDefaultSize() {
+        return mDefaultSize;
+    }
+
+    /**
+     * Get a cached icon.
+     *
+     * @param uri
+     * @param width 0, to use the default size.
+     * @param height 0, to use the default size.
+     * @return Bitmap, or null if not decoded yet at the given size.
+     */
+    public Bitmap get(Uri uri, int width, int height) {
+        if (width <= 0) width = mDefaultSize;
+        if (height <= 0) height = mDefaultSize;
+        final Icon icon = mCache.get(uri.toString());
+        return icon != null && icon.fits(width, height) ? icon.bitmap : null;
+    }
+
+    /**
+     * Get an icon, decode it now if not cached. Do not call this on the main thread.
+     *
+     * @param uri
+     * @param width 0, to use the default size.
+     * @param height 0, to use the default size.
+     * @return Bitmap, or null if failed to decode.
+     */
+    public Bitmap load(Uri uri, int width, int height) {
+        if (width <= 0) width = mDefaultSize;
+        if (height <= 0) height = mDefaultSize;
+        Bitmap bitmap = get(uri, width, height);
+        if (bitmap == null) {
+            final Icon icon = decode(uri, width, height);
+            if (icon != null) {
+                mCache.put(uri.toString(), icon);
+                bitmap = icon.bitmap;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get an icon, decode it in background if not cached.
+     *
+     * @param uri
+     * @param width 0, to use the default size.
+     * @param height 0, to use the default size.
+     * @param listener notified when decoded, can be null.
+     * @return Bitmap, or null if it is being decoded.
+     */
+    public Bitmap request(Uri uri, int width, int height, OnIconLoadedListener listener) {
+        if (width <= 0) width = mDefaultSize;
+        if (height <= 0) height = mDefaultSize;
+        final Bitmap bitmap = get(uri, width, height);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        final String key = uri.toString() + "#" + width + "x" + height;
+        synchronized (mRequests) {
+            ArrayList<OnIconLoadedListener> listeners = mRequests.get(key);
+            if (listeners == null) {
+                listeners = new ArrayList<OnIconLoadedListener>();
+                mRequests.put(key, listeners);
+                getWorker().obtainMessage(0, width, height, new Object[] { uri, key })
+                    .sendToTarget();
+                if (DBG) Log.v(TAG, "request - " + key);
+            }
+            if (listener != null && !listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove a listener from all pending requests.
+     *
+     * @param listener
+     */
+    public void cancel(OnIconLoadedListener listener) {
+        synchronized (mRequests) {
+            for (int i = 0, size = mRequests.size(); i < size; i++) {
+                mRequests.valueAt(i).remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached icons.
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @return int the size of cached icons, in bytes.
+     */
+    public int getCacheSize() {
+        return mCache.size();
+    }
+
+    /**
+     * @return int the maximum size of cached icons, in bytes.
+     */
+    public int getMaxCacheSize() {
+        return mCache.maxSize();
+    }
+
+    private Handler getWorker() {
+        if (mWorker == null) {
+            mHT = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mHT.start();
+            mWorker = new Handler(mHT.getLooper()) {
+
+                    @Override
+                    public void handleMessage(Message msg) {
+                        final Object[] request = (Object[]) msg.obj;
+                        final Uri uri = (Uri) request[0];
+                        final Bitmap bitmap = load(uri, msg.arg1, msg.arg2);
+                        mH.obtainMessage(0, new Object[] { uri, request[1], bitmap })
+                            .sendToTarget();
+                    }
+                };
+        }
+        return mWorker;
+    }
+
+    private void onLoaded(Uri uri, String key, Bitmap bitmap) {
+        if (DBG) Log.v(TAG, "loaded - " + key + ", " + bitmap);
+        ArrayList<OnIconLoadedListener> listeners;
+        synchronized (mRequests) {
+            listeners = mRequests.remove(key);
+        }
+        if (listeners != null) {
+            for (int i = 0, size = listeners.size(); i < size; i++) {
+                listeners.get(i).onIconLoaded(uri, bitmap);
+            }
+        }
+    }
+
+    private Icon decode(Uri uri, int width, int height) {
+        final ContentResolver resolver = mContext.getContentResolver();
+        final BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        decodeStream(resolver, uri, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            Log.w(TAG, "failed to decode icon bounds - " + uri);
+            return null;
+        }
+
+        // the largest power of 2 that keeps both sides no smaller than requested.
+        int sampleSize = 1;
+        while (opts.outWidth / (sampleSize * 2) >= width &&
+               opts.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sampleSize;
+        final Bitmap bitmap = decodeStream(resolver, uri, opts);
+        if (bitmap == null) {
+            Log.w(TAG, "failed to decode icon - " + uri);
+            return null;
+        }
+
+        if (DBG) Log.v(TAG, "decode - " + uri + ", " + opts.outWidth + "x" + opts.outHeight +
+                       ", sample=" + sampleSize);
+        return new Icon(bitmap, sampleSize == 1);
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri,
+                                       BitmapFactory.Options opts) {
+        InputStream in = null;
+        try {
+            in = resolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(in, null, opts);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "icon not found - " + uri);
+            return null;
+        } catch (SecurityException e) {
+            // e.g. a content uri without read permission.
+            Log.e(TAG, "icon not readable - " + uri, e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            // e.g. a content uri of an unknown provider.
+            Log.e(TAG, "icon not readable - " + uri, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static final class Icon {
+        final Bitmap bitmap;
+        // decoded at full resolution, fits any requested size.
+        final boolean full;
+
+        Icon(Bitmap bitmap, boolean full) {
+            this.bitmap = bitmap;
+            this.full = full;
+        }
+
+        boolean fits(int width, int height) {
+            return full || (bitmap.getWidth() >= width && bitmap.getHeight() >= height);
+        }
+    }
+
+    // main looper
+    private static final class H extends Handler {
+        private WeakReference<NotificationIconLoader> mLoader;
+        H(NotificationIconLoader l) {
+            super(Looper.getMainLooper());
+            mLoader = new WeakReference<NotificationIconLoader>(l);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            NotificationIconLoader l = mLoader.get();
+            if (l == null) return;
+
+            final Object[] result = (Object[]) msg.obj;
+            l.onLoaded((Uri) result[0], (String) result[1], (Bitmap) result[2]);
+        }
+    }
+}
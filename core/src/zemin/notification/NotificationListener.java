@@ -45,4 +45,20 @@ public interface NotificationListener {
      * @param entry
      */
     void onUpdate(NotificationEntry entry);
+
+    /**
+     * Implemented by listeners which want the progress of notifications.
+     *
+     * @see NotificationDelegater#updateProgress
+     */
+    interface ProgressListener {
+
+        /**
+         * Called when the progress of a notification changes. Changes within
+         * a frame are merged, {@link NotificationEntry#progress} holds the latest.
+         *
+         * @param entry
+         */
+        void onProgress(NotificationEntry entry);
+    }
 }
@@ -145,7 +145,7 @@ public class NotificationLocal extends NotificationHandler {
 
 
     @Override
-    protected void onUpdate(NotificationEntry entry) {
+    protected void onUpdate(NotificationEntry entry, int changes) {
         if (mView == null) {
             Log.w(TAG, "NotificationView not found.");
             onUpdateIgnored(entry);
@@ -158,7 +158,14 @@ public class NotificationLocal extends NotificationHandler {
             return;
         }
 
-        mView.onUpdate(entry);
+        mView.onUpdate(entry, changes);
+    }
+
+    @Override
+    protected void onUpdateProgress(NotificationEntry entry) {
+        if (mView != null && mView.isViewEnabled()) {
+            mView.onUpdateProgress(entry);
+        }
     }
 
     @Override public String toSimpleString() { return SIMPLE_NAME; }
@@ -26,6 +26,7 @@ import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Looper;
 import android.util.Log;
+import android.util.SparseArray;
 
 import android.support.v4.app.NotificationCompat;
 
@@ -49,11 +50,16 @@ public class NotificationRemote extends NotificationHandler {
     public static final String KEY_ENTRY_ID = "key_entry_id";
     public static final String KEY_ACTION_ID = "key_action_id";
 
+    // the status bar drops updates posted too frequently.
+    private static final int PROGRESS_INTERVAL = 200;
+
     private static int sID = 0;
 
     private NotificationRemoteCallback mCallback;
     private NotificationManager mManager;
     private NotificationCompat.Builder mBuilder;
+    private final SparseArray<NotificationCompat.Builder> mBuilders =
+        new SparseArray<NotificationCompat.Builder>();
     private Receiver mReceiver;
     private IntentFilter mFilter;
     private boolean mListening;
@@ -107,10 +113,15 @@ public class NotificationRemote extends NotificationHandler {
     }
 
     /**
-     * Get builder for {@link android.app.Notification}.
+     * Get builder for {@link android.app.Notification}, shared by all
+     * notifications. Once it is taken, the default callback builds every
+     * notification with it, so its settings are kept, but updates are then
+     * built from scratch.
      *
+     * @deprecated use {@link #getStatusBarNotificationBuilder(NotificationEntry)}.
      * @return NotificationCompat#Builder
      */
+    @Deprecated
     public NotificationCompat.Builder getStatusBarNotificationBuilder() {
         if (mBuilder == null) {
             mBuilder = new NotificationCompat.Builder(mContext);
@@ -118,6 +129,52 @@ public class NotificationRemote extends NotificationHandler {
         return mBuilder;
     }
 
+    /**
+     * Whether the shared builder has been taken.
+     *
+     * @see #getStatusBarNotificationBuilder()
+     *
+     * @return boolean
+     */
+    public boolean hasSharedStatusBarNotificationBuilder() {
+        return mBuilder != null;
+    }
+
+    /**
+     * Get the builder of a notification. It is kept until the notification
+     * is canceled, so that an update only needs to set the changed fields.
+     *
+     * @param entry
+     * @return NotificationCompat#Builder
+     */
+    public NotificationCompat.Builder getStatusBarNotificationBuilder(NotificationEntry entry) {
+        NotificationCompat.Builder builder = mBuilders.get(entry.ID);
+        if (builder == null) {
+            builder = new NotificationCompat.Builder(mContext);
+            mBuilders.put(entry.ID, builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Whether the builder of a notification has been created.
+     *
+     * @param entry
+     * @return boolean
+     */
+    public boolean hasStatusBarNotificationBuilder(NotificationEntry entry) {
+        return mBuilders.get(entry.ID) != null;
+    }
+
+    /**
+     * Discard the builder of a notification. The next one starts from scratch.
+     *
+     * @param entry
+     */
+    public void removeStatusBarNotificationBuilder(NotificationEntry entry) {
+        mBuilders.remove(entry.ID);
+    }
+
     /**
      * Create an PendingIntent to execute when the notification is explicitly dismissed by the user.
      *
@@ -165,18 +222,45 @@ public class NotificationRemote extends NotificationHandler {
     @Override
     protected void onCancel(NotificationEntry entry) {
         mManager.cancel(entry.ID);
+        mBuilders.remove(entry.ID);
         onCancelFinished(entry);
     }
 
     @Override
     protected void onCancelAll() {
         mManager.cancelAll();
+        mBuilders.clear();
         onCancelAllFinished();
     }
 
     @Override
     protected void onArrival(NotificationEntry entry) {
+        notify(entry, NotificationEntry.FIELD_ALL);
+    }
+
+    @Override
+    protected void onUpdate(NotificationEntry entry, int changes) {
+        notify(entry, changes);
+    }
+
+    @Override
+    protected void onUpdateProgress(NotificationEntry entry) {
+        if (mCallback == null) {
+            return;
+        }
+
+        Notification n = mCallback.makeProgressNotification(this, entry, entry.layoutId);
+        if (n != null) {
+            mManager.notify(entry.tag, entry.ID, n);
+        }
+    }
 
+    @Override
+    protected int getProgressInterval() {
+        return PROGRESS_INTERVAL;
+    }
+
+    private void notify(NotificationEntry entry, int changes) {
         if (mCallback == null) {
             if (DBG) Log.v(TAG, "set default NotificationRemoteCallback");
             mCallback = new NotificationRemoteCallback();
@@ -187,7 +271,7 @@ public class NotificationRemote extends NotificationHandler {
             startListening();
         }
 
-        Notification n = mCallback.makeStatusBarNotification(this, entry, entry.layoutId);
+        Notification n = mCallback.makeStatusBarNotification(this, entry, entry.layoutId, changes);
         if (n == null) {
             Log.e(TAG, "failed to send remote notification. {null Notification}");
             onSendIgnored(entry);
@@ -202,12 +286,8 @@ public class NotificationRemote extends NotificationHandler {
         onSendFinished(entry);
     }
 
-    @Override
-    protected void onUpdate(NotificationEntry entry) {
-        onArrival(entry);
-    }
-
     private void onCanceledRemotely(NotificationEntry entry) {
+        mBuilders.remove(entry.ID);
         reportCanceled(entry);
     }
 
@@ -54,39 +54,11 @@ public class NotificationRemoteCallback {
     public Notification makeStatusBarNotification(NotificationRemote remote, NotificationEntry entry, int layoutId) {
         if (DBG) Log.v(TAG, "makeStatusBarNotification - " + entry.ID);
 
-        final int entryId = entry.ID;
-        final CharSequence title = entry.title;
-        final CharSequence text = entry.text;
-        CharSequence tickerText = entry.tickerText;
-
-        NotificationCompat.Builder builder = remote.getStatusBarNotificationBuilder();
-        if (entry.smallIconRes > 0) {
-            builder.setSmallIcon(entry.smallIconRes);
-        } else {
-            Log.w(TAG, "***************** small icon not set.");
-        }
-
-        if (tickerText == null) {
-            Log.w(TAG, "***************** tickerText not set.");
-            tickerText = title + ": " + text;
-        }
-
-        if (entry.largeIconBitmap != null) {
-            builder.setLargeIcon(entry.largeIconBitmap);
-        }
-
-        builder.setTicker(tickerText);
-        builder.setContentTitle(title);
-        builder.setContentText(text);
-        builder.setShowWhen(entry.showWhen);
-
-        if (entry.showWhen && entry.whenLong > 0) {
-            builder.setWhen(entry.whenLong);
-        }
-
-        if (entry.progressMax != 0 || entry.progressIndeterminate) {
-            builder.setProgress(entry.progressMax, entry.progress, entry.progressIndeterminate);
-        }
+        remote.removeStatusBarNotificationBuilder(entry);
+        NotificationCompat.Builder builder = remote.hasSharedStatusBarNotificationBuilder() ?
+            remote.getStatusBarNotificationBuilder() :
+            remote.getStatusBarNotificationBuilder(entry);
+        NotificationBinder.bind(remote.getContext(), builder, entry);
 
         builder.setAutoCancel(entry.autoCancel);
         builder.setOngoing(entry.ongoing);
@@ -126,6 +98,71 @@ public class NotificationRemoteCallback {
         return builder.build();
     }
 
+    /**
+     * Create the {@link android.app.Notification} object of an update. By
+     * default, only the changed fields are set to the builder of the last
+     * {@link #makeStatusBarNotification(NotificationRemote, NotificationEntry, int)},
+     * and it falls back to that method if all fields or the actions changed,
+     * or if the shared builder is used.
+     *
+     * @param remote
+     * @param entry
+     * @param layoutId
+     * @param changes the changed fields, {@link NotificationEntry#FIELD_ICON}, ...
+     * @return Notification
+     */
+    public Notification makeStatusBarNotification(NotificationRemote remote, NotificationEntry entry,
+                                                  int layoutId, int changes) {
+        if (changes == NotificationEntry.FIELD_ALL ||
+            (changes & NotificationEntry.FIELD_ACTIONS) != 0 ||
+            !remote.hasStatusBarNotificationBuilder(entry)) {
+            return makeStatusBarNotification(remote, entry, layoutId);
+        }
+
+        if (DBG) Log.v(TAG, "makeStatusBarNotification - " + entry.ID + ", changes=" + changes);
+
+        NotificationCompat.Builder builder = remote.getStatusBarNotificationBuilder(entry);
+        NotificationBinder.bind(remote.getContext(), builder, entry, changes);
+        builder.setAutoCancel(entry.autoCancel);
+        builder.setOngoing(entry.ongoing);
+        return builder.build();
+    }
+
+    /**
+     * Create the {@link android.app.Notification} object of a progress update.
+     * Only the progress is set to the builder of the notification, which does
+     * not alert again.
+     *
+     * @see NotificationDelegater#updateProgress
+     *
+     * @param remote
+     * @param entry
+     * @param layoutId
+     * @return Notification, or null if the notification has not been posted.
+     */
+    public Notification makeProgressNotification(NotificationRemote remote, NotificationEntry entry,
+                                                 int layoutId) {
+        if (remote.hasSharedStatusBarNotificationBuilder()) {
+            // the shared builder may hold another notification, build it again.
+            NotificationCompat.Builder builder = remote.getStatusBarNotificationBuilder();
+            builder.setOnlyAlertOnce(true);
+            Notification n = makeStatusBarNotification(remote, entry, layoutId);
+            builder.setOnlyAlertOnce(false);
+            return n;
+        }
+
+        if (!remote.hasStatusBarNotificationBuilder(entry)) {
+            return null;
+        }
+
+        NotificationCompat.Builder builder = remote.getStatusBarNotificationBuilder(entry);
+        NotificationBinder.bind(remote.getContext(), builder, entry, NotificationEntry.FIELD_PROGRESS);
+        builder.setOnlyAlertOnce(true);
+        Notification n = builder.build();
+        builder.setOnlyAlertOnce(false);
+        return n;
+    }
+
     /**
      * Called when notification is clicked.
      *
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.View;
+
+/**
+ * A text field of a notification, drawn from the layouts of {@link TextLayoutCache}.
+ * Unlike a {@link android.widget.TextView}, it does not lay out the text on the
+ * main thread when the layout has been built in advance for its width.
+ *
+ * It reads android:textSize, android:textStyle, android:textColor and
+ * android:singleLine from the layout. {@link NotificationBinder} tells it which
+ * field it draws, by its id.
+ */
+public class NotificationTextView extends View {
+
+    private static final String TAG = "zemin.NotificationTextView";
+    public static boolean DBG;
+
+    // sorted by id, as obtainStyledAttributes() requires.
+    private static final int[] ATTRS = {
+        android.R.attr.textSize,
+        android.R.attr.textStyle,
+        android.R.attr.textColor,
+        android.R.attr.singleLine,
+    };
+
+    private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private boolean mSingleLine;
+    private int mField = NotificationBinder.TEXT;
+    private NotificationEntry mEntry;
+    private CharSequence mText;
+    private StaticLayout mLayout;
+    private TextLayoutCache.Spec mSpec;
+    private boolean mAttached;
+
+    public NotificationTextView(Context context) {
+        this(context, null);
+    }
+
+    public NotificationTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        final TypedArray a = context.obtainStyledAttributes(attrs, ATTRS);
+        mPaint.setTextSize(a.getDimension(0, TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_SP, 14, getResources().getDisplayMetrics())));
+        mPaint.setTypeface(Typeface.defaultFromStyle(a.getInt(1, Typeface.NORMAL)));
+        mPaint.setColor(a.getColor(2, 0xff000000));
+        mSingleLine = a.getBoolean(3, false);
+        a.recycle();
+    }
+
+    /**
+     * Set the field of the notification drawn by this view.
+     *
+     * @param field {@link NotificationBinder#TITLE}, {@link NotificationBinder#TEXT}
+     *              or {@link NotificationBinder#WHEN}.
+     */
+    public void setField(int field) {
+        if (mField != field) {
+            mField = field;
+            updateSpec(mSpec != null ? mSpec.width : 0);
+        }
+    }
+
+    /**
+     * @return int
+     */
+    public int getField() {
+        return mField;
+    }
+
+    /**
+     * Draw the field of a notification, from the layout precomputed for it.
+     *
+     * @param entry
+     * @param field
+     */
+    public void setText(NotificationEntry entry, int field) {
+        setField(field);
+        setText(entry, TextLayoutCache.getText(entry, field));
+    }
+
+    /**
+     * Draw a text. The layout is taken from the recent layouts of
+     * {@link TextLayoutCache}, or built now.
+     *
+     * @param text
+     */
+    public void setText(CharSequence text) {
+        setText(null, text);
+    }
+
+    private void setText(NotificationEntry entry, CharSequence text) {
+        if (mEntry == entry && TextUtils.equals(mText, text)) {
+            return;
+        }
+
+        mEntry = entry;
+        mText = text;
+        mLayout = null;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * @return CharSequence
+     */
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * @param size in sp.
+     */
+    public void setTextSize(float size) {
+        mPaint.setTextSize(TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_SP, size, getResources().getDisplayMetrics()));
+        onPaintChanged();
+    }
+
+    /**
+     * @param color
+     */
+    public void setTextColor(int color) {
+        mPaint.setColor(color);
+        onPaintChanged();
+    }
+
+    /**
+     * The layouts are drawn with a copy of this paint, call {@link #setTextSize}
+     * or {@link #setTextColor} to apply a change.
+     *
+     * @return TextPaint
+     */
+    public TextPaint getPaint() {
+        return mPaint;
+    }
+
+    private void onPaintChanged() {
+        mLayout = null;
+        updateSpec(mSpec != null ? mSpec.width : 0);
+        requestLayout();
+        invalidate();
+    }
+
+    // the layouts of this view are built in advance once its width is known.
+    private void updateSpec(int width) {
+        if (mSpec != null && mSpec.singleLine == mSingleLine &&
+            mSpec.matches(mField, mPaint, width)) {
+            return;
+        }
+
+        final TextLayoutCache cache = TextLayoutCache.getInstance();
+        if (mSpec != null && mAttached) {
+            cache.removeSpec(mSpec);
+        }
+        mSpec = null;
+        if (width > 0) {
+            if (DBG) Log.v(TAG, "updateSpec - field=" + mField + ", width=" + width);
+            mSpec = new TextLayoutCache.Spec(mField, mPaint, width, mSingleLine);
+            if (mAttached) {
+                cache.addSpec(mSpec);
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        if (mSpec != null) {
+            TextLayoutCache.getInstance().addSpec(mSpec);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mAttached = false;
+        if (mSpec != null) {
+            TextLayoutCache.getInstance().removeSpec(mSpec);
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+        final int paddingH = getPaddingLeft() + getPaddingRight();
+        final int paddingV = getPaddingTop() + getPaddingBottom();
+
+        final StaticLayout layout = obtainLayout(
+            widthMode == MeasureSpec.UNSPECIFIED ? -1 : Math.max(0, widthSize - paddingH));
+
+        int width = paddingH;
+        int height = paddingV;
+        if (layout != null) {
+            float lineWidth = 0.0f;
+            for (int i = 0, count = layout.getLineCount(); i < count; i++) {
+                lineWidth = Math.max(lineWidth, layout.getLineWidth(i));
+            }
+            width += (int) Math.ceil(lineWidth);
+            height += layout.getHeight();
+        }
+
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                             resolveSize(height, heightMeasureSpec));
+    }
+
+    private StaticLayout obtainLayout(int width) {
+        if (mText == null) {
+            mLayout = null;
+            return null;
+        }
+
+        if (width < 0) {
+            // not bounded, as wide as the text. such a width is not worth a spec.
+            width = (int) Math.ceil(Layout.getDesiredWidth(mText, mPaint));
+            if (mLayout == null || mLayout.getWidth() != width) {
+                mLayout = new StaticLayout(mText, mPaint, width, Layout.Alignment.ALIGN_NORMAL,
+                                           1.0f, 0.0f, false);
+            }
+            return mLayout;
+        }
+
+        updateSpec(width);
+        if (mSpec == null) {
+            mLayout = null;
+            return null;
+        }
+
+        final TextLayoutCache cache = TextLayoutCache.getInstance();
+        if (mLayout == null || mLayout.getWidth() != width) {
+            mLayout = mEntry != null ? cache.obtain(mEntry, mSpec) : cache.obtain(mText, mSpec);
+        }
+        return mLayout;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout != null) {
+            canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            mLayout.draw(canvas);
+            canvas.restore();
+        }
+    }
+}
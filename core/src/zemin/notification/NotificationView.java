@@ -17,23 +17,24 @@
 package zemin.notification;
 
 import android.animation.Animator;
-import android.animation.ArgbEvaluator;
-import android.animation.IntEvaluator;
-import android.animation.ObjectAnimator;
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.LayerDrawable;
 import android.os.Handler;
 import android.os.Looper;
+import android.net.Uri;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.Property;
 import android.view.animation.Animation;
 import android.view.GestureDetector;
 import android.view.Gravity;
@@ -41,6 +42,7 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
+import android.widget.LinearLayout;
 
 import android.support.v4.view.GestureDetectorCompat;
 
@@ -88,9 +90,16 @@ public class NotificationView extends FrameLayout
 
     public static final int DEFAULT_GRAVITY = Gravity.CENTER | Gravity.TOP;
 
+    public static final int DEFAULT_STACK_SIZE = 1;
+    public static final int STACK_TRANSITION_TIME = 300;
+    public static final int STACK_SPACING = 10;
+
     private final ArrayList<NotificationEntry> mEntries =
         new ArrayList<NotificationEntry>();
 
+    private final ArrayList<Slot> mSlots = new ArrayList<Slot>();
+    private final ArrayList<Slot> mSlotPool = new ArrayList<Slot>();
+
     private ArrayList<StateListener> mListeners = null;
 
     private final Object mEntryLock = new Object();
@@ -109,6 +118,8 @@ public class NotificationView extends FrameLayout
     private NotificationHandler mNotificationHandler;
     private NotificationEntry mLastEntry;
     private NotificationEntry mPendingEntry;
+    // fields of mLastEntry changed since the last MSG_UPDATE_NOTIFICATION.
+    private int mUpdateFields;
     private GestureListener mGestureListener;
     private GestureDetectorCompat mGestureDetector;
 
@@ -124,16 +135,21 @@ public class NotificationView extends FrameLayout
 
     private ChildViewManager mChildViewManager;
 
-    private ObjectAnimator mBackgroundColorAnimator;
-    private ObjectAnimator mBackgroundAlphaAnimator;
-    private AnimationListener mHideAnimationListener;
+    private BackgroundAnimator mBackgroundColorAnimator;
+    private BackgroundAnimator mBackgroundAlphaAnimator;
+    private ContentAnimator mContentAnimator;
+    private ViewTransition.Listener mHideTransitionListener;
     private ContentViewSwitcher mContentViewSwitcher;
     private boolean mTransitionEnabled = true;
     private boolean mShowHideAnimEnabled = true;
-    private Animation mDefaultShowAnimation;
-    private Animation mDefaultHideAnimation;
+    private ViewTransition mDefaultShowTransition;
+    private ViewTransition mDefaultHideTransition;
+    private ViewTransition.Legacy mLegacyShowTransition;
+    private ViewTransition.Legacy mLegacyHideTransition;
+    private ViewTransition mTransition;
     private Animation mShowAnimation;
     private Animation mHideAnimation;
+    private TransitionMetrics mTransitionMetrics;
 
     private Drawable mBackground;
     private Drawable mContentBackground;
@@ -153,6 +169,10 @@ public class NotificationView extends FrameLayout
     private int mDirection = -1;
     private int mGestureConsumer;
 
+    private LinearLayout mStackView;
+    private ValueAnimator mStackAnimator;
+    private int mStackSize = DEFAULT_STACK_SIZE;
+
     /**
      * Monitor the state of this view.
      */
@@ -197,13 +217,19 @@ public class NotificationView extends FrameLayout
         mNotificationHandler = handler;
         mContentViewSwitcher = new ContentViewSwitcher();
         mChildViewManager = new ChildViewManager();
+        mFrames = new FrameScheduler(mFrameCallback);
         mGestureDetector = new GestureDetectorCompat(mContext, this);
         mContentBackground = new GradientDrawable();
+        mBackgroundColorAnimator = new BackgroundAnimator(true);
+        mBackgroundAlphaAnimator = new BackgroundAnimator(false);
+        mContentAnimator = new ContentAnimator();
         mDimension[0] = LayoutParams.MATCH_PARENT;
         mDimension[1] = LayoutParams.WRAP_CONTENT;
-        mHideAnimationListener = mDismissAnimationListener;
-        mDefaultShowAnimation = AnimationFactory.pushDownIn();
-        mDefaultHideAnimation = AnimationFactory.pushUpOut();
+        mHideTransitionListener = mDismissTransitionListener;
+        mDefaultShowTransition = ViewTransition.Property.pushDownIn();
+        mDefaultHideTransition = ViewTransition.Property.pushUpOut();
+        mLegacyShowTransition = new ViewTransition.Legacy();
+        mLegacyHideTransition = new ViewTransition.Legacy();
     }
 
     /**
@@ -336,9 +362,10 @@ public class NotificationView extends FrameLayout
     public void pause() {
         if (hasState(TICKING) && !hasState(PAUSED)) {
             if (DBG) Log.v(TAG, "pause. " + mEntries.size());
-            mContentView.animate().cancel();
+            mContentAnimator.cancel();
             addState(PAUSED);
             cancel(-1);
+            pauseStack();
         }
     }
 
@@ -349,6 +376,7 @@ public class NotificationView extends FrameLayout
         if (hasState(PAUSED)) {
             if (DBG) Log.v(TAG, "resume.");
             clearState(PAUSED);
+            resumeStack();
 
             if (mContentView.isShown()) {
                 schedule(MSG_SHOW, mNotiDisplayTime);
@@ -524,6 +552,31 @@ public class NotificationView extends FrameLayout
         mShowHideAnimEnabled = enable;
     }
 
+    /**
+     * Enable/disable frame metrics of show, switch, dismiss and drag-out transitions.
+     *
+     * @see TransitionMetrics
+     *
+     * @param enable
+     */
+    public void setTransitionMetricsEnabled(boolean enable) {
+        if (enable) {
+            if (mTransitionMetrics == null) {
+                mTransitionMetrics = new TransitionMetrics(this);
+            }
+        } else if (mTransitionMetrics != null) {
+            mTransitionMetrics.cancel();
+            mTransitionMetrics = null;
+        }
+    }
+
+    /**
+     * @return TransitionMetrics, or null if not enabled.
+     */
+    public TransitionMetrics getTransitionMetrics() {
+        return mTransitionMetrics;
+    }
+
     /**
      * Set transition time of show animation.
      *
@@ -544,8 +597,10 @@ public class NotificationView extends FrameLayout
 
     /**
      * Set show animation (AnimationListener and duration will be replaced).
+     * By default, the contentView is shown with property animations on a
+     * hardware layer; a view animation set here is played instead.
      *
-     * @param anim
+     * @param anim null, to restore the default.
      */
     public void setShowAnimation(Animation anim) {
         mShowAnimation = anim;
@@ -553,8 +608,10 @@ public class NotificationView extends FrameLayout
 
     /**
      * Set hide animation (AnimationListener and duration will be replaced).
+     * By default, the contentView is hidden with property animations on a
+     * hardware layer; a view animation set here is played instead.
      *
-     * @param anim
+     * @param anim null, to restore the default.
      */
     public void setHideAnimation(Animation anim) {
         mHideAnimation = anim;
@@ -574,6 +631,100 @@ public class NotificationView extends FrameLayout
         return mChildViewManager;
     }
 
+    /**
+     * Set the maximum number of notifications displayed at the same time.
+     * The first one is displayed by the contentView, the others are stacked
+     * below it (or above it, if the view is at the bottom), each with its own
+     * display timer. Higher priority notifications take the free slots first.
+     *
+     * @see NotificationViewCallback#getStackedViewLayoutId
+     *
+     * @param size default is {@link #DEFAULT_STACK_SIZE}, which disables stacking.
+     */
+    public void setStackSize(int size) {
+        if (size < 1) {
+            size = 1;
+        }
+        if (mStackSize != size) {
+            if (DBG) Log.v(TAG, "stack size - " + size);
+            mStackSize = size;
+            if (hasState(TICKING)) {
+                schedule(MSG_UPDATE_STACK);
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of notifications displayed at the same time.
+     *
+     * @return int
+     */
+    public int getStackSize() {
+        return mStackSize;
+    }
+
+    /**
+     * Get the number of notifications currently stacked beside the contentView.
+     *
+     * @return int
+     */
+    public int getStackedCount() {
+        synchronized (mEntryLock) {
+            int count = 0;
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                if (mSlots.get(i).state != SLOT_LEAVING) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Get the icon of a notification. If only {@link NotificationEntry#iconUri} is set,
+     * the icon is taken from {@link NotificationIconLoader}; if it is still being
+     * decoded, the notification is updated once it is ready.
+     *
+     * @param entry
+     * @return Drawable, or null if not available (yet).
+     */
+    public Drawable getIconDrawable(NotificationEntry entry) {
+        if (entry.iconDrawable != null || entry.iconUri == null) {
+            return entry.iconDrawable;
+        }
+
+        final Bitmap bitmap = NotificationIconLoader.getInstance(mContext)
+            .request(entry.iconUri, 0, 0, mOnIconLoadedListener);
+        return bitmap != null ? new BitmapDrawable(getResources(), bitmap) : null;
+    }
+
+    private void onIconLoaded(Uri uri) {
+        synchronized (mEntryLock) {
+            if (mLastEntry != null && uri.equals(mLastEntry.iconUri)) {
+                mUpdateFields |= NotificationEntry.FIELD_ICON;
+                schedule(MSG_UPDATE_NOTIFICATION, 0, 0, mLastEntry, 0);
+            }
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                final Slot slot = mSlots.get(i);
+                if (slot.state != SLOT_LEAVING && uri.equals(slot.entry.iconUri)) {
+                    slot.dirty = true;
+                    schedule(MSG_UPDATE_STACK);
+                }
+            }
+        }
+    }
+
+    private final NotificationIconLoader.OnIconLoadedListener mOnIconLoadedListener =
+        new NotificationIconLoader.OnIconLoadedListener() {
+
+            @Override
+            public void onIconLoaded(Uri uri, Bitmap bitmap) {
+                if (bitmap != null) {
+                    NotificationView.this.onIconLoaded(uri);
+                }
+            }
+        };
+
     /**
      * Whether the contentView has been changed.
      *
@@ -659,7 +810,11 @@ public class NotificationView extends FrameLayout
 
     private void setContentViewInner(View view) {
         addState(CONTENT_CHANGED);
-        removeAllViews();
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            if (getChildAt(i) != mStackView) {
+                removeViewAt(i);
+            }
+        }
         clearLastEntry();
         mDismissOnDragDistanceFarEnough = 0;
         view.setBackground(null);
@@ -708,25 +863,8 @@ public class NotificationView extends FrameLayout
                     b.setCornerRadius(mCornerRadius);
                     b.setStroke(mStrokeWidth, mStrokeColor);
 
-                    if (mBackgroundColorAnimator != null) {
-                        mBackgroundColorAnimator.cancel();
-                        mBackgroundColorAnimator = null;
-                    }
-
-                    ColorProperty colorProperty = new ColorProperty();
-                    mBackgroundColorAnimator = ObjectAnimator.ofObject(
-                        b, colorProperty, new ArgbEvaluator(), 0, 0);
-                    mBackgroundColorAnimator.setDuration(mBackgroundTransitionTime);
-
-                    if (mBackgroundAlphaAnimator != null) {
-                        mBackgroundAlphaAnimator.cancel();
-                        mBackgroundAlphaAnimator = null;
-                    }
-
-                    AlphaProperty alphaProperty = new AlphaProperty();
-                    mBackgroundAlphaAnimator = ObjectAnimator.ofObject(
-                        b, alphaProperty, new IntEvaluator(), 0, 0);
-                    mBackgroundAlphaAnimator.setDuration(mBackgroundTransitionTime);
+                    mBackgroundColorAnimator.cancel();
+                    mBackgroundAlphaAnimator.cancel();
                 }
             }
 
@@ -737,8 +875,6 @@ public class NotificationView extends FrameLayout
             if (mContentBackground instanceof GradientDrawable) {
                 GradientDrawable b = (GradientDrawable) mContentBackground;
                 b.setStroke(mStrokeWidth, mStrokeColor);
-                mBackgroundColorAnimator.setDuration(mBackgroundTransitionTime);
-                mBackgroundAlphaAnimator.setDuration(mBackgroundTransitionTime);
             }
 
             clearState(CONTENT_BACKGROUND_CHANGED_MINOR);
@@ -756,9 +892,7 @@ public class NotificationView extends FrameLayout
             mLastEntry.backgroundColor : Color.WHITE;
         final int currColor = entry.backgroundColor;
         if (lastColor != currColor) {
-            mBackgroundColorAnimator.cancel();
-            mBackgroundColorAnimator.setIntValues(lastColor, currColor);
-            mBackgroundColorAnimator.start();
+            mBackgroundColorAnimator.start(lastColor, currColor);
         }
     }
 
@@ -770,9 +904,7 @@ public class NotificationView extends FrameLayout
             mLastEntry.backgroundAlpha : 0xff;
         final int currAlpha = entry.backgroundAlpha;
         if (lastAlpha != currAlpha) {
-            mBackgroundAlphaAnimator.cancel();
-            mBackgroundAlphaAnimator.setIntValues(lastAlpha, currAlpha);
-            mBackgroundAlphaAnimator.start();
+            mBackgroundAlphaAnimator.start(lastAlpha, currAlpha);
         }
     }
 
@@ -943,13 +1075,7 @@ public class NotificationView extends FrameLayout
         if (DBG) Log.v(TAG, "animateContentViewRotationX - " +
                        "degree=" + degree + ", alpha=" + alpha);
 
-        mContentView.animate().cancel();
-        mContentView.animate()
-            .alpha(alpha)
-            .rotationX(degree)
-            .setListener(listener)
-            .setDuration(duration)
-            .start();
+        mContentAnimator.start(ContentAnimator.ROTATION_X, degree, alpha, listener, duration);
     }
 
     /**
@@ -967,13 +1093,7 @@ public class NotificationView extends FrameLayout
         if (DBG) Log.v(TAG, "animateContentViewRotationY - " +
                        "degree=" + degree + ", alpha=" + alpha);
 
-        mContentView.animate().cancel();
-        mContentView.animate()
-            .alpha(alpha)
-            .rotationY(degree)
-            .setListener(listener)
-            .setDuration(duration)
-            .start();
+        mContentAnimator.start(ContentAnimator.ROTATION_Y, degree, alpha, listener, duration);
     }
 
     /**
@@ -991,13 +1111,7 @@ public class NotificationView extends FrameLayout
         if (DBG) Log.v(TAG, "animateContentViewTranslationX - " +
                        "x=" + x + ", alpha=" + alpha);
 
-        mContentView.animate().cancel();
-        mContentView.animate()
-            .alpha(alpha)
-            .translationX(x)
-            .setListener(listener)
-            .setDuration(duration)
-            .start();
+        mContentAnimator.start(ContentAnimator.TRANSLATION_X, x, alpha, listener, duration);
     }
 
     /**
@@ -1015,13 +1129,7 @@ public class NotificationView extends FrameLayout
         if (DBG) Log.v(TAG, "animateContentViewTranslationY - " +
                        "y=" + y + ", alpha=" + alpha);
 
-        mContentView.animate().cancel();
-        mContentView.animate()
-            .alpha(alpha)
-            .translationY(y)
-            .setListener(listener)
-            .setDuration(duration)
-            .start();
+        mContentAnimator.start(ContentAnimator.TRANSLATION_Y, y, alpha, listener, duration);
     }
 
     /**
@@ -1056,27 +1164,55 @@ public class NotificationView extends FrameLayout
             if (!hasState(TICKING)) {
                 addState(TICKING);
                 schedule(MSG_START);
+            } else if (mStackSize > 1) {
+                schedule(MSG_UPDATE_STACK);
             }
         }
     }
 
-    void onUpdate(NotificationEntry entry) {
+    void onUpdate(NotificationEntry entry, int changes) {
         synchronized (mEntryLock) {
+            final Slot slot = getSlot(entry);
             if (mLastEntry == entry) {
+                // updates within a frame are merged.
+                mUpdateFields |= changes;
                 schedule(MSG_UPDATE_NOTIFICATION, 0, 0, entry, 0);
                 mNotificationHandler.onUpdateFinished(entry);
+            } else if (slot != null) {
+                slot.dirty = true;
+                schedule(MSG_UPDATE_STACK);
+                mNotificationHandler.onUpdateFinished(entry);
             } else if (!mEntries.contains(entry)) {
                 onArrival(entry);
             }
         }
     }
 
+    void onUpdateProgress(NotificationEntry entry) {
+        synchronized (mEntryLock) {
+            if (mLastEntry == entry) {
+                mUpdateFields |= NotificationEntry.FIELD_PROGRESS;
+                schedule(MSG_UPDATE_NOTIFICATION, 0, 0, entry, 0);
+            } else {
+                final Slot slot = getSlot(entry);
+                if (slot != null) {
+                    slot.progressDirty = true;
+                    schedule(MSG_UPDATE_STACK);
+                }
+            }
+        }
+    }
+
     void onCancel(NotificationEntry entry) {
         synchronized (mEntryLock) {
+            final Slot slot = getSlot(entry);
             if (mEntries.contains(entry)) {
                 mEntries.remove(entry);
             } else if (mLastEntry == entry) {
                 mContentViewSwitcher.start();
+            } else if (slot != null) {
+                slot.expireTime = 0L;
+                schedule(MSG_UPDATE_STACK);
             }
         }
         mNotificationHandler.onCancelFinished(entry);
@@ -1089,16 +1225,20 @@ public class NotificationView extends FrameLayout
 
     private void clearLastEntry() {
         if (mLastEntry != null) {
-            if (mLastEntry.nohistory) {
-                mNotificationHandler.reportCanceled(mLastEntry);
-            }
-            if (mLastEntry.autoSilentMode) {
-                mLastEntry.silentMode = true;
-            }
+            releaseEntry(mLastEntry);
         }
         mLastEntry = null;
     }
 
+    private void releaseEntry(NotificationEntry entry) {
+        if (entry.nohistory) {
+            mNotificationHandler.reportCanceled(entry);
+        }
+        if (entry.autoSilentMode) {
+            entry.silentMode = true;
+        }
+    }
+
     public void sendPendings() {
         synchronized (mEntryLock) {
             for (NotificationEntry entry : mEntries) {
@@ -1115,6 +1255,7 @@ public class NotificationView extends FrameLayout
 
         // reset
         mContentView.setTranslationX(0.0f);
+        mContentView.setTranslationY(0.0f);
         mContentView.setRotationX(0.0f);
         mContentView.setAlpha(1.0f);
 
@@ -1146,31 +1287,30 @@ public class NotificationView extends FrameLayout
             mContentView.setLayoutParams(lp);
         }
 
+        if (mStackView != null) {
+            updateStackLayoutParams();
+        }
+
         mContentView.setVisibility(VISIBLE);
         if (mShowHideAnimEnabled) {
-            if (mShowAnimation == null) {
-                mShowAnimation = mDefaultShowAnimation;
-            }
             if (mShowTransitionTime == 0) {
                 mShowTransitionTime = SHOW_TRANSITION_TIME;
             }
-            mShowAnimation.setAnimationListener(mShowAnimationListener);
-            mShowAnimation.setDuration(mShowTransitionTime);
-            mContentView.startAnimation(mShowAnimation);
+            beginTransition(TransitionMetrics.SHOW);
+            startTransition(mShowAnimation, mLegacyShowTransition, mDefaultShowTransition,
+                            mShowTransitionTime, mShowTransitionListener);
         }
     }
 
     private void hide() {
         if (mShowHideAnimEnabled) {
-            if (mHideAnimation == null) {
-                mHideAnimation = mDefaultHideAnimation;
-            }
             if (mHideTransitionTime == 0) {
                 mHideTransitionTime = HIDE_TRANSITION_TIME;
             }
-            mHideAnimation.setAnimationListener(mHideAnimationListener);
-            mHideAnimation.setDuration(mHideTransitionTime);
-            mContentView.startAnimation(mHideAnimation);
+            beginTransition(mHideTransitionListener == mDismissTransitionListener ?
+                            TransitionMetrics.DISMISS : TransitionMetrics.SWITCH);
+            startTransition(mHideAnimation, mLegacyHideTransition, mDefaultHideTransition,
+                            mHideTransitionTime, mHideTransitionListener);
         } else {
             mContentView.setVisibility(GONE);
             if (hasState(DISMISSING)) {
@@ -1179,17 +1319,60 @@ public class NotificationView extends FrameLayout
         }
     }
 
+    private void startTransition(Animation anim, ViewTransition.Legacy legacy,
+                                 ViewTransition def, int duration,
+                                 ViewTransition.Listener l) {
+        if (mTransition != null) {
+            mTransition.end();
+        }
+
+        if (anim != null) {
+            legacy.setAnimation(anim);
+            mTransition = legacy;
+        } else {
+            mTransition = def;
+        }
+
+        mTransition.setDuration(duration);
+        mTransition.start(mContentView, l);
+    }
+
+    // the property animations of the show transition would fight with the
+    // ones started by the user, e.g. when dragging.
+    private void finishShowTransition() {
+        if (mTransition == mDefaultShowTransition) {
+            mTransition.end();
+        }
+    }
+
     private void onDismiss() {
         if (DBG) Log.v(TAG, "dismiss.");
         cancel(-1);
         clearState(TICKING);
         clearState(DISMISSING);
+        clearState(SWITCHING);
         addState(DISMISSED);
         clearLastEntry();
+        clearStack();
         removeView(mContentView);
+        if (mTransitionMetrics != null) {
+            mTransitionMetrics.cancel();
+        }
         onViewDismiss();
     }
 
+    private void beginTransition(int transition) {
+        if (mTransitionMetrics != null) {
+            mTransitionMetrics.begin(transition);
+        }
+    }
+
+    private void endTransition(int transition) {
+        if (mTransitionMetrics != null) {
+            mTransitionMetrics.end(transition);
+        }
+    }
+
     private void onContentViewVisibilityChanged(boolean shown) {
         if (DBG) Log.v(TAG, "onContentViewVisibilityChanged - " + shown);
         if (shown == hasState(PAUSED)) {
@@ -1217,7 +1400,7 @@ public class NotificationView extends FrameLayout
         addState(STARTING);
         if (hasState(DISMISSING)) {
             if (DBG) Log.v(TAG, "dismissing now. schedule next start.");
-            schedule(MSG_START, (int) mHideAnimation.getDuration());
+            schedule(MSG_START, mHideTransitionTime);
             return;
         }
 
@@ -1236,6 +1419,7 @@ public class NotificationView extends FrameLayout
 
         if (hasState(CALLBACK_CHANGED)) {
             clearState(CALLBACK_CHANGED);
+            mSlotPool.clear();
             mCallback.onViewSetup(this);
 
             final int layoutId = mCallback.getContentViewDefaultLayoutId(this);
@@ -1293,7 +1477,11 @@ public class NotificationView extends FrameLayout
             if (entry == null && !mEntries.isEmpty()) {
                 entry = mEntries.remove(0);
             }
+            if (entry == null) {
+                entry = takeStackedEntry();
+            }
         }
+        clearState(SWITCHING);
 
         if (entry == null) {
             schedule(MSG_DISMISS);
@@ -1359,14 +1547,23 @@ public class NotificationView extends FrameLayout
         }
 
         schedule(MSG_ENABLE_DISMISS_ON_GESTURE, DISMISS_FREEZE_TIME);
+        updateStack();
     }
 
     private void onMsgUpdateNotification(NotificationEntry entry) {
+        final int changes;
+        synchronized (mEntryLock) {
+            changes = mUpdateFields;
+            mUpdateFields = 0;
+        }
+
         if (mLastEntry == entry) {
-            mCallback.onUpdateNotification(this, mContentView, entry, mCurrentLayoutId);
+            mCallback.onUpdateNotification(this, mContentView, entry, mCurrentLayoutId, changes);
             updateContentBackground();
-            updateContentBackgroundColor(entry);
-            updateContentBackgroundAlpha(entry);
+            if ((changes & NotificationEntry.FIELD_BACKGROUND) != 0) {
+                updateContentBackgroundColor(entry);
+                updateContentBackgroundAlpha(entry);
+            }
         }
     }
 
@@ -1374,7 +1571,7 @@ public class NotificationView extends FrameLayout
         if (hasState(TICKING) && !hasState(DISMISSING)) {
             if (mContentView.isShown()) {
                 addState(DISMISSING);
-                mHideAnimationListener = mDismissAnimationListener;
+                mHideTransitionListener = mDismissTransitionListener;
                 hide();
             } else {
                 onDismiss();
@@ -1390,9 +1587,14 @@ public class NotificationView extends FrameLayout
     }
 
     private void onMsgSwitchToSelf() {
-        if (!mEntries.isEmpty()) {
+        boolean next;
+        synchronized (mEntryLock) {
+            next = !mEntries.isEmpty() || requeueStackedEntry();
+        }
+        if (next) {
             if (DBG) Log.v(TAG, "switchToSelf");
-            mHideAnimationListener = mSwitchSelfAnimationListener;
+            addState(SWITCHING);
+            mHideTransitionListener = mSwitchSelfTransitionListener;
             hide();
         } else {
             schedule(MSG_DISMISS);
@@ -1402,7 +1604,8 @@ public class NotificationView extends FrameLayout
     private void onMsgSwitchToTarget(View target) {
         if (DBG) Log.v(TAG, "switchToTarget");
         mTargetContentView = target;
-        mHideAnimationListener = mSwitchContentAnimationListener;
+        addState(SWITCHING);
+        mHideTransitionListener = mSwitchContentTransitionListener;
         hide();
     }
 
@@ -1426,6 +1629,36 @@ public class NotificationView extends FrameLayout
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        if (hasStackView() && MeasureSpec.getMode(heightMeasureSpec) != MeasureSpec.EXACTLY) {
+            // FrameLayout measures the contentView and the stack on top of each other,
+            // but they are laid out next to each other.
+            final LayoutParams lp = (LayoutParams) mContentView.getLayoutParams();
+            int height = getPaddingTop() + getPaddingBottom() +
+                lp.topMargin + lp.bottomMargin +
+                mContentView.getMeasuredHeight() + mStackView.getMeasuredHeight();
+            if (MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.AT_MOST) {
+                height = Math.min(height, MeasureSpec.getSize(heightMeasureSpec));
+            }
+            if (height > getMeasuredHeight()) {
+                setMeasuredDimension(getMeasuredWidth(), height);
+            }
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (hasStackView()) {
+            final LayoutParams lp = (LayoutParams) mContentView.getLayoutParams();
+            final int h = mStackView.getMeasuredHeight();
+            final int t;
+            if ((mGravity & Gravity.VERTICAL_GRAVITY_MASK) == Gravity.BOTTOM) {
+                t = mContentView.getTop() - lp.topMargin - h;
+            } else {
+                t = mContentView.getBottom() + lp.bottomMargin;
+            }
+            mStackView.layout(mStackView.getLeft(), t, mStackView.getRight(), t + h);
+        }
     }
 
     @Override
@@ -1680,6 +1913,7 @@ public class NotificationView extends FrameLayout
         if (DBG) Log.v(TAG, "onDragOut");
         final int width = mContentView.getMeasuredWidth();
         final int x = mContentView.getTranslationX() >= 0 ? width : -width;
+        beginTransition(TransitionMetrics.DRAG_OUT);
         animateContentViewTranslationX(
             x, 0.0f, mDragOutAnimatorListener, DRAG_OUT_TRANSITION_TIME);
     }
@@ -1690,6 +1924,344 @@ public class NotificationView extends FrameLayout
             0.0f, 1.0f, mDragCancelAnimatorListener, DRAG_CANCEL_TRANSITION_TIME);
     }
 
+    private Slot getSlot(NotificationEntry entry) {
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            final Slot slot = mSlots.get(i);
+            if (slot.entry == entry && slot.state != SLOT_LEAVING) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasStackView() {
+        return mStackView != null && mStackView.getParent() == this &&
+            mStackView.getChildCount() > 0 &&
+            mContentView != null && mContentView.getParent() == this;
+    }
+
+    private void updateStackLayoutParams() {
+        if (mStackView.getParent() == null) {
+            addView(mStackView);
+        }
+
+        final int gravity = (mGravity & Gravity.HORIZONTAL_GRAVITY_MASK) | Gravity.TOP;
+        final LayoutParams lp = (LayoutParams) mStackView.getLayoutParams();
+        if (lp.leftMargin != mContentMargin[0] ||
+            lp.rightMargin != mContentMargin[2] ||
+            lp.width != mDimension[0] ||
+            lp.gravity != gravity) {
+
+            lp.leftMargin = mContentMargin[0];
+            lp.rightMargin = mContentMargin[2];
+            lp.width = mDimension[0];
+            lp.height = LayoutParams.WRAP_CONTENT;
+            lp.gravity = gravity;
+
+            mStackView.setLayoutParams(lp);
+        }
+    }
+
+    private void updateStack() {
+        if (hasState(PAUSED)) return;
+
+        final long now = SystemClock.uptimeMillis();
+        long next = Long.MAX_VALUE;
+        boolean animate = false;
+
+        synchronized (mEntryLock) {
+            int active = 0;
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                final Slot slot = mSlots.get(i);
+                if (slot.state == SLOT_LEAVING) {
+                    continue;
+                }
+                if (slot.expireTime <= now || active >= mStackSize - 1) {
+                    if (DBG) Log.v(TAG, "stack: leave - " + slot.entry.ID);
+                    releaseEntry(slot.entry);
+                    slot.state = SLOT_LEAVING;
+                    slot.transitionTime = now;
+                    animate = true;
+                    continue;
+                }
+                if (slot.dirty) {
+                    slot.dirty = false;
+                    slot.progressDirty = false;
+                    showStackedNotification(slot, slot.entry);
+                } else if (slot.progressDirty) {
+                    slot.progressDirty = false;
+                    slot.binder.bind(slot.entry, NotificationEntry.FIELD_PROGRESS);
+                }
+                active++;
+            }
+
+            // the contentView takes the first entry, the free slots take the rest.
+            final boolean stacking = mLastEntry != null &&
+                hasState(TICKING) && !hasState(STARTING | SWITCHING | DISMISSING);
+
+            while (stacking && active < mStackSize - 1 && !mEntries.isEmpty()) {
+                final NotificationEntry entry = mEntries.remove(0);
+                if (DBG) Log.v(TAG, "stack: enter - " + entry.ID);
+                final Slot slot = obtainSlot();
+                showStackedNotification(slot, entry);
+                slot.state = SLOT_ENTERING;
+                slot.transitionTime = now;
+                slot.expireTime = now + mNotiDisplayTime;
+                slot.view.setAlpha(0.0f);
+                mSlots.add(slot);
+                mStackView.addView(slot.view);
+                mNotificationHandler.onSendFinished(entry);
+                animate = true;
+                active++;
+            }
+
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                final Slot slot = mSlots.get(i);
+                if (slot.state != SLOT_LEAVING && slot.expireTime < next) {
+                    next = slot.expireTime;
+                }
+            }
+        }
+
+        if (animate) {
+            startStackAnimator();
+        }
+
+        if (next != Long.MAX_VALUE) {
+            schedule(MSG_UPDATE_STACK, (int) Math.max(0L, next - now));
+        }
+    }
+
+    private Slot obtainSlot() {
+        final int size = mSlotPool.size();
+        if (size > 0) {
+            return mSlotPool.remove(size - 1);
+        }
+
+        if (mStackView == null) {
+            mStackView = new LinearLayout(mContext);
+            mStackView.setOrientation(LinearLayout.VERTICAL);
+            updateStackLayoutParams();
+        }
+
+        final int layoutId = mCallback.getStackedViewLayoutId(this);
+        final Slot slot = new Slot(inflate(mContext, layoutId, null), layoutId);
+        final LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.MATCH_PARENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT);
+        lp.topMargin = lp.bottomMargin = STACK_SPACING / 2;
+        slot.view.setLayoutParams(lp);
+        slot.view.setBackground(slot.background);
+        mCallback.onStackedViewCreated(this, slot.view, slot.mgr, layoutId);
+        return slot;
+    }
+
+    private void recycleSlot(Slot slot) {
+        mStackView.removeView(slot.view);
+        slot.entry = null;
+        slot.dirty = false;
+        slot.progressDirty = false;
+        slot.mgr.reset();
+        mSlotPool.add(slot);
+    }
+
+    private void showStackedNotification(Slot slot, NotificationEntry entry) {
+        if (entry.showWhen && entry.whenFormatted == null) {
+            entry.setWhen(null, entry.whenLong > 0L ?
+                          entry.whenLong : System.currentTimeMillis());
+        }
+
+        slot.entry = entry;
+        slot.background.setCornerRadius(mCornerRadius);
+        slot.background.setStroke(mStrokeWidth, mStrokeColor);
+        slot.background.setColor(entry.backgroundColor != 0 ?
+                                 entry.backgroundColor : mDefaultBackgroundColor);
+        slot.background.setAlpha(entry.backgroundAlpha != NotificationEntry.INVALID ?
+                                 entry.backgroundAlpha : mDefaultBackgroundAlpha);
+        slot.view.setVisibility(VISIBLE);
+        mCallback.onShowStackedNotification(this, slot.view, slot.mgr, entry, slot.layoutId);
+    }
+
+    /**
+     * Take the earliest stacked entry out of its slot, so that it can be
+     * displayed by the contentView.
+     */
+    private NotificationEntry takeStackedEntry() {
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            final Slot slot = mSlots.get(i);
+            if (slot.state != SLOT_LEAVING) {
+                if (DBG) Log.v(TAG, "stack: move up - " + slot.entry.ID);
+                slot.state = SLOT_LEAVING;
+                slot.transitionTime = SystemClock.uptimeMillis();
+                startStackAnimator();
+                return slot.entry;
+            }
+        }
+        return null;
+    }
+
+    private boolean requeueStackedEntry() {
+        final NotificationEntry entry = takeStackedEntry();
+        if (entry != null) {
+            mEntries.add(0, entry);
+            return true;
+        }
+        return false;
+    }
+
+    private void startStackAnimator() {
+        if (mStackAnimator == null) {
+            mStackAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+            mStackAnimator.setDuration(STACK_TRANSITION_TIME);
+            mStackAnimator.setRepeatCount(ValueAnimator.INFINITE);
+            mStackAnimator.addUpdateListener(mStackAnimatorUpdateListener);
+        }
+        if (!mStackAnimator.isStarted()) {
+            mStackAnimator.start();
+        }
+    }
+
+    // one animator drives the enter/leave transitions of all slots.
+    private void onStackAnimationFrame() {
+        final long now = SystemClock.uptimeMillis();
+        boolean running = false;
+
+        synchronized (mEntryLock) {
+            for (int i = mSlots.size() - 1; i >= 0; i--) {
+                final Slot slot = mSlots.get(i);
+                if (slot.state == SLOT_SHOWN) {
+                    continue;
+                }
+
+                float progress = (float) (now - slot.transitionTime) / STACK_TRANSITION_TIME;
+                if (progress >= 1.0f) {
+                    progress = 1.0f;
+                } else {
+                    running = true;
+                }
+
+                if (slot.state == SLOT_ENTERING) {
+                    slot.view.setAlpha(progress);
+                    slot.view.setTranslationY((1.0f - progress) * -STACK_SPACING);
+                    if (progress == 1.0f) {
+                        slot.state = SLOT_SHOWN;
+                    }
+                } else {
+                    slot.view.setAlpha(1.0f - progress);
+                    if (progress == 1.0f) {
+                        mSlots.remove(i);
+                        recycleSlot(slot);
+                    }
+                }
+            }
+        }
+
+        if (!running) {
+            mStackAnimator.cancel();
+        }
+    }
+
+    private void pauseStack() {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mEntryLock) {
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                final Slot slot = mSlots.get(i);
+                slot.expireTime -= now;
+            }
+        }
+    }
+
+    private void resumeStack() {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mEntryLock) {
+            if (mSlots.isEmpty()) {
+                return;
+            }
+            for (int i = 0, size = mSlots.size(); i < size; i++) {
+                final Slot slot = mSlots.get(i);
+                slot.expireTime += now;
+            }
+        }
+        schedule(MSG_UPDATE_STACK);
+    }
+
+    private void clearStack() {
+        synchronized (mEntryLock) {
+            if (mStackAnimator != null) {
+                mStackAnimator.cancel();
+            }
+            for (int i = mSlots.size() - 1; i >= 0; i--) {
+                final Slot slot = mSlots.remove(i);
+                if (slot.state != SLOT_LEAVING) {
+                    releaseEntry(slot.entry);
+                }
+                recycleSlot(slot);
+            }
+        }
+        if (mStackView != null) {
+            removeView(mStackView);
+        }
+    }
+
+    private void onClickStackedView(Slot slot) {
+        final NotificationEntry entry = slot.entry;
+        if (entry == null || slot.state == SLOT_LEAVING) {
+            return;
+        }
+
+        if (DBG) Log.v(TAG, "stack: click - " + entry.ID);
+        entry.executeContentAction(mContext);
+        mCallback.onClickContentView(this, slot.view, entry);
+        if (entry.autoCancel) {
+            entry.cancel();
+        }
+    }
+
+    private final ValueAnimator.AnimatorUpdateListener mStackAnimatorUpdateListener =
+        new ValueAnimator.AnimatorUpdateListener() {
+
+            @Override
+            public void onAnimationUpdate(ValueAnimator animator) {
+                onStackAnimationFrame();
+            }
+        };
+
+    private static final int SLOT_ENTERING = 0;
+    private static final int SLOT_SHOWN = 1;
+    private static final int SLOT_LEAVING = 2;
+
+    /**
+     * A notification displayed beside the contentView.
+     */
+    private final class Slot implements View.OnClickListener {
+
+        final View view;
+        final int layoutId;
+        final ChildViewManager mgr = new ChildViewManager();
+        final GradientDrawable background = new GradientDrawable();
+        // progress updates are bound directly, without the callback.
+        final NotificationBinder binder;
+
+        NotificationEntry entry;
+        int state;
+        long expireTime;
+        long transitionTime;
+        boolean dirty;
+        boolean progressDirty;
+
+        Slot(View view, int layoutId) {
+            this.view = view;
+            this.layoutId = layoutId;
+            this.binder = new NotificationBinder(view, layoutId);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            onClickStackedView(this);
+        }
+    }
+
     public class ContentViewSwitcher {
 
         /**
@@ -1720,99 +2292,224 @@ public class NotificationView extends FrameLayout
         }
     }
 
-    private class ColorProperty extends Property<GradientDrawable, Integer> {
-        ColorProperty() { super(Integer.class, "color"); }
+    // animates the color or the alpha of the content background, reused for
+    // every change. interpolates the values itself, without boxing them.
+    private final class BackgroundAnimator implements ValueAnimator.AnimatorUpdateListener {
 
-        @Override
-        public void set(GradientDrawable gd, Integer value) {
-            gd.setColor(value.intValue());
+        private final boolean mColor;
+        private final ValueAnimator mAnimator;
+        private int mFrom;
+        private int mTo;
+
+        BackgroundAnimator(boolean color) {
+            mColor = color;
+            mAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+            mAnimator.addUpdateListener(this);
+        }
+
+        void start(int from, int to) {
+            mAnimator.cancel();
+            mFrom = from;
+            mTo = to;
+            mAnimator.setDuration(mBackgroundTransitionTime);
+            mAnimator.start();
+        }
+
+        void cancel() {
+            mAnimator.cancel();
         }
 
         @Override
-        public Integer get(GradientDrawable gd) {
-            return 0;
+        public void onAnimationUpdate(ValueAnimator animator) {
+            if (!(mContentBackground instanceof GradientDrawable)) {
+                return;
+            }
+
+            final GradientDrawable b = (GradientDrawable) mContentBackground;
+            final float f = animator.getAnimatedFraction();
+            if (mColor) {
+                b.setColor(Color.argb(
+                               blend(Color.alpha(mFrom), Color.alpha(mTo), f),
+                               blend(Color.red(mFrom), Color.red(mTo), f),
+                               blend(Color.green(mFrom), Color.green(mTo), f),
+                               blend(Color.blue(mFrom), Color.blue(mTo), f)));
+            } else {
+                b.setAlpha(blend(mFrom, mTo, f));
+            }
         }
     }
 
-    private class AlphaProperty extends Property<GradientDrawable, Integer> {
-        AlphaProperty() { super(Integer.class, "alpha"); }
+    private static int blend(int from, int to, float fraction) {
+        return from + (int) ((to - from) * fraction);
+    }
+
+    // animates one property and the alpha of the contentView, reused for
+    // every animation instead of starting a new ViewPropertyAnimator chain.
+    private final class ContentAnimator
+        implements ValueAnimator.AnimatorUpdateListener, Animator.AnimatorListener {
+
+        static final int ROTATION_X    = 0;
+        static final int ROTATION_Y    = 1;
+        static final int TRANSLATION_X = 2;
+        static final int TRANSLATION_Y = 3;
+
+        private final ValueAnimator mAnimator;
+        private Animator.AnimatorListener mListener;
+        private View mTarget;
+        private int mProperty;
+        private float mFrom;
+        private float mTo;
+        private float mFromAlpha;
+        private float mToAlpha;
+
+        ContentAnimator() {
+            mAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+            mAnimator.addUpdateListener(this);
+            mAnimator.addListener(this);
+        }
+
+        void start(int property, float value, float alpha,
+                   Animator.AnimatorListener listener, int duration) {
+            mAnimator.cancel();
+            finishShowTransition();
+            mTarget = mContentView;
+            mProperty = property;
+            mFrom = get(mTarget, property);
+            mTo = value;
+            mFromAlpha = mTarget.getAlpha();
+            mToAlpha = alpha;
+            mListener = listener;
+            mAnimator.setDuration(duration);
+            mAnimator.start();
+        }
+
+        void cancel() {
+            mAnimator.cancel();
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator animator) {
+            final float f = animator.getAnimatedFraction();
+            set(mTarget, mProperty, mFrom + (mTo - mFrom) * f);
+            mTarget.setAlpha(mFromAlpha + (mToAlpha - mFromAlpha) * f);
+        }
+
+        @Override
+        public void onAnimationStart(Animator animation) {
+            if (mListener != null) {
+                mListener.onAnimationStart(animation);
+            }
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            // the listener may start another animation.
+            final Animator.AnimatorListener l = mListener;
+            mListener = null;
+            if (l != null) {
+                l.onAnimationEnd(animation);
+            }
+        }
 
         @Override
-        public void set(GradientDrawable gd, Integer value) {
-            gd.setAlpha(value.intValue());
+        public void onAnimationCancel(Animator animation) {
+            if (mListener != null) {
+                mListener.onAnimationCancel(animation);
+            }
         }
 
         @Override
-        public Integer get(GradientDrawable gd) {
-            return 0;
+        public void onAnimationRepeat(Animator animation) {
+            if (mListener != null) {
+                mListener.onAnimationRepeat(animation);
+            }
+        }
+
+        private float get(View view, int property) {
+            switch (property) {
+            case ROTATION_X:    return view.getRotationX();
+            case ROTATION_Y:    return view.getRotationY();
+            case TRANSLATION_X: return view.getTranslationX();
+            case TRANSLATION_Y: return view.getTranslationY();
+            }
+            return 0.0f;
+        }
+
+        private void set(View view, int property, float value) {
+            switch (property) {
+            case ROTATION_X:    view.setRotationX(value);    break;
+            case ROTATION_Y:    view.setRotationY(value);    break;
+            case TRANSLATION_X: view.setTranslationX(value); break;
+            case TRANSLATION_Y: view.setTranslationY(value); break;
+            }
         }
     }
 
     // show
-    private final AnimationListener mShowAnimationListener = new AnimationListener() {
+    private final ViewTransition.Listener mShowTransitionListener = new ViewTransition.Listener() {
 
             @Override
-            public void onAnimationStart(Animation animation) {
+            public void onTransitionStart(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "show start");
-                schedule(MSG_CLEAR_ANIMATION, (int) animation.getDuration());
+                schedule(MSG_CLEAR_ANIMATION, transition.getDuration());
                 schedule(MSG_SHOW);
             }
 
             @Override
-            public void onAnimationEnd(Animation animation) {
+            public void onTransitionEnd(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "show end");
-                animation.setAnimationListener(null);
+                endTransition(TransitionMetrics.SHOW);
             }
         };
 
     // dismiss
-    private final AnimationListener mDismissAnimationListener = new AnimationListener() {
+    private final ViewTransition.Listener mDismissTransitionListener = new ViewTransition.Listener() {
 
             @Override
-            public void onAnimationStart(Animation animation) {
+            public void onTransitionStart(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "hide start");
-                schedule(MSG_CLEAR_ANIMATION, (int) animation.getDuration());
+                schedule(MSG_CLEAR_ANIMATION, transition.getDuration());
             }
 
             @Override
-            public void onAnimationEnd(Animation animation) {
+            public void onTransitionEnd(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "hide end");
-                animation.setAnimationListener(null);
+                endTransition(TransitionMetrics.DISMISS);
                 onDismiss();
             }
         };
 
     // switch to target
-    private final AnimationListener mSwitchContentAnimationListener = new AnimationListener() {
+    private final ViewTransition.Listener mSwitchContentTransitionListener = new ViewTransition.Listener() {
 
             @Override
-            public void onAnimationStart(Animation animation) {
+            public void onTransitionStart(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "switch content start");
-                schedule(MSG_CLEAR_ANIMATION, (int) animation.getDuration());
+                schedule(MSG_CLEAR_ANIMATION, transition.getDuration());
             }
 
             @Override
-            public void onAnimationEnd(Animation animation) {
+            public void onTransitionEnd(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "switch content end");
-                animation.setAnimationListener(null);
+                endTransition(TransitionMetrics.SWITCH);
                 refreshContentView(mTargetContentView);
                 mTargetContentView = null;
             }
         };
 
     // self switch
-    private final AnimationListener mSwitchSelfAnimationListener = new AnimationListener() {
+    private final ViewTransition.Listener mSwitchSelfTransitionListener = new ViewTransition.Listener() {
 
             @Override
-            public void onAnimationStart(Animation animation) {
+            public void onTransitionStart(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "switch self start");
-                schedule(MSG_CLEAR_ANIMATION, (int) animation.getDuration());
+                schedule(MSG_CLEAR_ANIMATION, transition.getDuration());
             }
 
             @Override
-            public void onAnimationEnd(Animation animation) {
+            public void onTransitionEnd(ViewTransition transition) {
                 if (DBG) Log.v(TAG, "switch self end");
-                animation.setAnimationListener(null);
+                endTransition(TransitionMetrics.SWITCH);
                 refreshContentView();
             }
         };
@@ -1831,9 +2528,9 @@ public class NotificationView extends FrameLayout
 
             @Override
             public void onAnimationEnd(Animator animation) {
+                endTransition(TransitionMetrics.DRAG_OUT);
                 if (!mCanceled) {
                     if (DBG) Log.v(TAG, "drag out end");
-                    mContentView.animate().setListener(null);
                     clearLastEntry();
                     clearState(DISMISSING);
                     cancel(MSG_START);
@@ -1860,23 +2557,22 @@ public class NotificationView extends FrameLayout
             @Override
             public void onAnimationEnd(Animator animation) {
                 if (DBG) Log.v(TAG, "drag cancel end");
-                mContentView.animate().setListener(null);
                 schedule(MSG_SHOW, mNotiDisplayTime);
             }
         };
 
     private void onViewTicking() {
         if (mListeners != null) {
-            for (StateListener l : mListeners) {
-                l.onViewTicking(this);
+            for (int i = 0, size = mListeners.size(); i < size; i++) {
+                mListeners.get(i).onViewTicking(this);
             }
         }
     }
 
     private void onViewDismiss() {
         if (mListeners != null) {
-            for (StateListener l : mListeners) {
-                l.onViewDismiss(this);
+            for (int i = 0, size = mListeners.size(); i < size; i++) {
+                mListeners.get(i).onViewDismiss(this);
             }
         }
     }
@@ -1887,6 +2583,7 @@ public class NotificationView extends FrameLayout
     private static final int STARTING                            = 0x00000008;
     private static final int DISMISSING                          = 0x00000010;
     private static final int DISMISSED                           = 0x00000020;
+    private static final int SWITCHING                           = 0x00000040;
     private static final int CONTENT_CHANGED                     = 0x00000100;
     private static final int CONTENT_BACKGROUND_CHANGED          = 0x00000200;
     private static final int CONTENT_BACKGROUND_CHANGED_MINOR    = 0x00000400;
@@ -1914,13 +2611,20 @@ public class NotificationView extends FrameLayout
     private static final int MSG_CLEAR_ANIMATION               = 5;
     private static final int MSG_ENABLE_DISMISS_ON_GESTURE     = 6;
     private static final int MSG_UPDATE_NOTIFICATION           = 7;
+    private static final int MSG_UPDATE_STACK                  = 8;
 
+    // messages are dispatched at the start of a frame. a delayed message
+    // waits in H, and then joins the next frame.
     private H mH;
     private H getH() { if (mH == null) mH = new H(this); return mH; }
 
+    // created in initialize(), messages can be scheduled from the worker thread.
+    private FrameScheduler mFrames;
+    private FrameScheduler getFrames() { return mFrames; }
+
     private boolean isScheduled(int what) {
         final H h = getH();
-        return h.hasMessages(what);
+        return h.hasMessages(what) || getFrames().has(what);
     }
 
     private void cancel(int what) {
@@ -1929,24 +2633,74 @@ public class NotificationView extends FrameLayout
             h.removeCallbacksAndMessages(null);
         else
             h.removeMessages(what);
+        getFrames().remove(what);
     }
 
     private void schedule(int what) {
-        final H h = getH();
-        h.removeMessages(what);
-        h.sendEmptyMessage(what);
+        schedule(what, 0, 0, null, 0);
     }
 
     private void schedule(int what, int delay) {
-        final H h = getH();
-        h.removeMessages(what);
-        h.sendEmptyMessageDelayed(what, delay);
+        schedule(what, 0, 0, null, delay);
     }
 
     private void schedule(int what, int arg1, int arg2, Object obj, int delay) {
         final H h = getH();
         h.removeMessages(what);
-        h.sendMessageDelayed(h.obtainMessage(what, arg1, arg2, obj), delay);
+        if (delay > 0) {
+            getFrames().remove(what);
+            h.sendMessageDelayed(h.obtainMessage(what, arg1, arg2, obj), delay);
+        } else {
+            getFrames().post(what, arg1, obj);
+        }
+    }
+
+    private final FrameScheduler.Callback mFrameCallback = new FrameScheduler.Callback() {
+
+            @Override
+            public void onFrameMessage(int what, int arg1, Object obj) {
+                handleFrameMessage(what, arg1, obj);
+            }
+        };
+
+    private void handleFrameMessage(int what, int arg1, Object obj) {
+        switch (what) {
+        case MSG_START:
+            onMsgStart();
+            break;
+
+        case MSG_SHOW:
+            onMsgShow();
+            break;
+
+        case MSG_SWITCH_TO_SELF:
+            onMsgSwitchToSelf();
+            break;
+
+        case MSG_SWITCH_TO_TARGET:
+            onMsgSwitchToTarget((View) obj);
+            break;
+
+        case MSG_DISMISS:
+            onMsgDismiss();
+            break;
+
+        case MSG_CLEAR_ANIMATION:
+            onMsgClearAnimation();
+            break;
+
+        case MSG_ENABLE_DISMISS_ON_GESTURE:
+            onMsgEnableDismissOnGesture();
+            break;
+
+        case MSG_UPDATE_NOTIFICATION:
+            onMsgUpdateNotification((NotificationEntry) obj);
+            break;
+
+        case MSG_UPDATE_STACK:
+            updateStack();
+            break;
+        }
     }
 
     // main looper
@@ -1962,39 +2716,7 @@ public class NotificationView extends FrameLayout
             NotificationView v = mView.get();
             if (v == null) return;
 
-            switch (msg.what) {
-            case MSG_START:
-                v.onMsgStart();
-                break;
-
-            case MSG_SHOW:
-                v.onMsgShow();
-                break;
-
-            case MSG_SWITCH_TO_SELF:
-                v.onMsgSwitchToSelf();
-                break;
-
-            case MSG_SWITCH_TO_TARGET:
-                v.onMsgSwitchToTarget((View) msg.obj);
-                break;
-
-            case MSG_DISMISS:
-                v.onMsgDismiss();
-                break;
-
-            case MSG_CLEAR_ANIMATION:
-                v.onMsgClearAnimation();
-                break;
-
-            case MSG_ENABLE_DISMISS_ON_GESTURE:
-                v.onMsgEnableDismissOnGesture();
-                break;
-
-            case MSG_UPDATE_NOTIFICATION:
-                v.onMsgUpdateNotification((NotificationEntry) msg.obj);
-                break;
-            }
+            v.getFrames().post(msg.what, msg.arg1, msg.obj);
         }
     }
 }
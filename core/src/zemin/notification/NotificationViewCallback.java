@@ -38,6 +38,9 @@ public class NotificationViewCallback {
     // public static final int PROGRESS   = 4;
     // add more..
 
+    // whether the update of the changed fields only is used, null if unknown yet.
+    private Boolean mPartialUpdate;
+
     /**
      * Called only once after this callback is set.
      *
@@ -72,28 +75,18 @@ public class NotificationViewCallback {
     public void onContentViewChanged(NotificationView view, View contentView, int layoutId) {
         if (DBG) Log.v(TAG, "onContentViewChanged");
 
-        ChildViewManager mgr = view.getChildViewManager();
-
         if (layoutId == R.layout.notification_simple ||
             layoutId == R.layout.notification_large_icon ||
             layoutId == R.layout.notification_full) {
 
             view.setNotificationTransitionEnabled(false);
 
-            mgr.setView(ICON, contentView.findViewById(R.id.switcher_icon));
-            mgr.setView(TITLE, contentView.findViewById(R.id.switcher_title));
-            mgr.setView(TEXT, contentView.findViewById(R.id.switcher_text));
-            mgr.setView(WHEN, contentView.findViewById(R.id.switcher_when));
-
         } else if (layoutId == R.layout.notification_simple_2) {
 
             view.setNotificationTransitionEnabled(true);
-
-            mgr.setView(ICON, contentView.findViewById(R.id.icon));
-            mgr.setView(TITLE, contentView.findViewById(R.id.title));
-            mgr.setView(TEXT, contentView.findViewById(R.id.text));
-            mgr.setView(WHEN, contentView.findViewById(R.id.when));
         }
+
+        new NotificationBinder(contentView, layoutId).bind(view.getChildViewManager());
     }
 
     /**
@@ -108,7 +101,7 @@ public class NotificationViewCallback {
     public void onShowNotification(NotificationView view, View contentView, NotificationEntry entry, int layoutId) {
         if (DBG) Log.v(TAG, "onShowNotification - " + entry.ID);
 
-        final Drawable icon = entry.iconDrawable;
+        final Drawable icon = view.getIconDrawable(entry);
         final CharSequence title = entry.title;
         final CharSequence text = entry.text;
         final CharSequence when = entry.showWhen ? entry.whenFormatted : null;
@@ -128,18 +121,20 @@ public class NotificationViewCallback {
                 titleChanged = false;
             }
 
-            mgr.setImageDrawable(ICON, icon, titleChanged);
-            mgr.setText(TITLE, title, titleChanged);
-            mgr.setText(TEXT, text);
-            mgr.setText(WHEN, when);
+            mgr.setImageDrawable(ChildViewManager.SLOT_ICON, icon, titleChanged);
+            mgr.setText(ChildViewManager.SLOT_TITLE, title, titleChanged);
+            mgr.setText(ChildViewManager.SLOT_TEXT, text);
+            mgr.setText(ChildViewManager.SLOT_WHEN, when);
 
         } else if (layoutId == R.layout.notification_simple_2) {
 
-            mgr.setImageDrawable(ICON, icon);
-            mgr.setText(TITLE, title);
-            mgr.setText(TEXT, text);
-            mgr.setText(WHEN, when);
+            mgr.setImageDrawable(ChildViewManager.SLOT_ICON, icon);
+            mgr.setText(ChildViewManager.SLOT_TITLE, title);
+            mgr.setText(ChildViewManager.SLOT_TEXT, text);
+            mgr.setText(ChildViewManager.SLOT_WHEN, when);
         }
+
+        bindProgress(contentView, entry);
     }
 
     /**
@@ -153,17 +148,126 @@ public class NotificationViewCallback {
     public void onUpdateNotification(NotificationView view, View contentView, NotificationEntry entry, int layoutId) {
         if (DBG) Log.v(TAG, "onUpdateNotification - " + entry.ID);
 
-        final Drawable icon = entry.iconDrawable;
+        final Drawable icon = view.getIconDrawable(entry);
         final CharSequence title = entry.title;
         final CharSequence text = entry.text;
         final CharSequence when = entry.showWhen ? entry.whenFormatted : null;
 
         ChildViewManager mgr = view.getChildViewManager();
 
-        mgr.setImageDrawable(ICON, icon, false);
-        mgr.setText(TITLE, title, false);
-        mgr.setText(TEXT, text, false);
-        mgr.setText(WHEN, when, false);
+        mgr.setImageDrawable(ChildViewManager.SLOT_ICON, icon, false);
+        mgr.setText(ChildViewManager.SLOT_TITLE, title, false);
+        mgr.setText(ChildViewManager.SLOT_TEXT, text, false);
+        mgr.setText(ChildViewManager.SLOT_WHEN, when, false);
+        bindProgress(contentView, entry);
+    }
+
+    /**
+     * Whether {@link #onUpdateNotification(NotificationView, View, NotificationEntry, int, int)}
+     * may set only the changed fields. By default, it is true unless
+     * {@link #onUpdateNotification(NotificationView, View, NotificationEntry, int)}
+     * is overridden, so that an override still sees every update.
+     *
+     * @return boolean
+     */
+    public boolean supportsPartialUpdate() {
+        if (mPartialUpdate == null) {
+            mPartialUpdate = !Utils.isOverridden(
+                this, NotificationViewCallback.class, "onUpdateNotification",
+                NotificationView.class, View.class, NotificationEntry.class, int.class);
+        }
+        return mPartialUpdate;
+    }
+
+    /**
+     * Called when a notification is being updated. By default, only the changed
+     * fields are set to the {@link ChildViewManager}, and it falls back to
+     * {@link #onUpdateNotification(NotificationView, View, NotificationEntry, int)}
+     * if all fields changed or {@link #supportsPartialUpdate} is false.
+     *
+     * @param view
+     * @param contentView
+     * @param entry
+     * @param layoutId
+     * @param changes the changed fields, {@link NotificationEntry#FIELD_ICON}, ...
+     */
+    public void onUpdateNotification(NotificationView view, View contentView, NotificationEntry entry,
+                                     int layoutId, int changes) {
+        if (changes == NotificationEntry.FIELD_ALL || !supportsPartialUpdate()) {
+            onUpdateNotification(view, contentView, entry, layoutId);
+            return;
+        }
+
+        if (DBG) Log.v(TAG, "onUpdateNotification - " + entry.ID + ", changes=" + changes);
+
+        ChildViewManager mgr = view.getChildViewManager();
+
+        if ((changes & NotificationEntry.FIELD_ICON) != 0) {
+            mgr.setImageDrawable(ChildViewManager.SLOT_ICON, view.getIconDrawable(entry), false);
+        }
+        if ((changes & NotificationEntry.FIELD_TITLE) != 0) {
+            mgr.setText(ChildViewManager.SLOT_TITLE, entry.title, false);
+        }
+        if ((changes & NotificationEntry.FIELD_TEXT) != 0) {
+            mgr.setText(ChildViewManager.SLOT_TEXT, entry.text, false);
+        }
+        if ((changes & NotificationEntry.FIELD_WHEN) != 0) {
+            mgr.setText(ChildViewManager.SLOT_WHEN, entry.showWhen ? entry.whenFormatted : null, false);
+        }
+        if ((changes & NotificationEntry.FIELD_PROGRESS) != 0) {
+            bindProgress(contentView, entry);
+        }
+    }
+
+    private static void bindProgress(View view, NotificationEntry entry) {
+        NotificationBinder.bindProgress(view.findViewById(R.id.progress), entry);
+    }
+
+    /**
+     * Called to get the layoutId of the views stacked beside the contentView.
+     *
+     * @see NotificationView#setStackSize
+     *
+     * @param view
+     * @return int
+     */
+    public int getStackedViewLayoutId(NotificationView view) {
+        return R.layout.notification_simple_2;
+    }
+
+    /**
+     * Called when a stacked view is created. This is the place to set up the
+     * associated child-views of the stacked view.
+     *
+     * @param view
+     * @param stackedView
+     * @param mgr
+     * @param layoutId
+     */
+    public void onStackedViewCreated(NotificationView view, View stackedView, ChildViewManager mgr, int layoutId) {
+        if (DBG) Log.v(TAG, "onStackedViewCreated");
+
+        new NotificationBinder(stackedView, layoutId).bind(mgr);
+    }
+
+    /**
+     * Called when a notification is being displayed by a stacked view.
+     *
+     * @param view
+     * @param stackedView
+     * @param mgr
+     * @param entry
+     * @param layoutId
+     */
+    public void onShowStackedNotification(NotificationView view, View stackedView, ChildViewManager mgr,
+                                          NotificationEntry entry, int layoutId) {
+        if (DBG) Log.v(TAG, "onShowStackedNotification - " + entry.ID);
+
+        mgr.setImageDrawable(ChildViewManager.SLOT_ICON, view.getIconDrawable(entry), false);
+        mgr.setText(ChildViewManager.SLOT_TITLE, entry.title, false);
+        mgr.setText(ChildViewManager.SLOT_TEXT, entry.text, false);
+        mgr.setText(ChildViewManager.SLOT_WHEN, entry.showWhen ? entry.whenFormatted : null, false);
+        bindProgress(stackedView, entry);
     }
 
     /**
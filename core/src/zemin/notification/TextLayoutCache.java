@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.graphics.Paint;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the text layouts of {@link NotificationEntry}, keyed by text, width and paint.
+ *
+ * A view which draws the text of notifications registers a {@link Spec} for
+ * each of its text fields. Whenever a notification is sent or updated, the
+ * layouts of the registered specs are built on the thread of the
+ * {@link NotificationHandler}, so the main thread only has to draw them.
+ *
+ * The layouts are kept by the entry itself, and are released with it. The
+ * most recent ones are also found by text, for the views bound without the
+ * entry, e.g. through {@link ChildViewManager}.
+ *
+ * @see NotificationTextView
+ */
+public class TextLayoutCache {
+
+    private static final String TAG = "zemin.TextLayoutCache";
+    public static boolean DBG;
+
+    /**
+     * maximum number of layouts kept by a single notification.
+     */
+    public static final int MAX_LAYOUTS_PER_ENTRY = 4;
+
+    /**
+     * maximum number of the most recent layouts found by text.
+     */
+    public static final int MAX_RECENT_LAYOUTS = 16;
+
+    private static TextLayoutCache sInstance;
+
+    /**
+     * Get the shared instance.
+     *
+     * @return TextLayoutCache
+     */
+    public static TextLayoutCache getInstance() {
+        synchronized (TextLayoutCache.class) {
+            if (sInstance == null) {
+                sInstance = new TextLayoutCache();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * How a text field is laid out.
+     */
+    public static final class Spec {
+
+        final int field;
+        final int width;
+        final boolean singleLine;
+        final TextPaint paint;
+        // number of addSpec() calls not yet matched by removeSpec().
+        int refs;
+
+        /**
+         * @param field {@link NotificationBinder#TITLE}, {@link NotificationBinder#TEXT}
+         *              or {@link NotificationBinder#WHEN}.
+         * @param paint copied, later changes to it are not seen. The layouts are
+         *              drawn with the copy, so its color is part of the key.
+         * @param width
+         * @param singleLine ellipsize the text at the end if it is too long.
+         */
+        public Spec(int field, TextPaint paint, int width, boolean singleLine) {
+            this.field = field;
+            this.width = width;
+            this.singleLine = singleLine;
+            this.paint = new TextPaint();
+            this.paint.set(paint);
+        }
+
+        /**
+         * The paint of the layouts built from this spec.
+         *
+         * @return TextPaint
+         */
+        public TextPaint getPaint() {
+            return paint;
+        }
+
+        boolean matches(int field, Paint paint, int width) {
+            return this.field == field && this.width == width &&
+                this.paint.getTextSize() == paint.getTextSize() &&
+                this.paint.getTextScaleX() == paint.getTextScaleX() &&
+                this.paint.getTypeface() == paint.getTypeface() &&
+                this.paint.getColor() == paint.getColor() &&
+                this.paint.getFlags() == paint.getFlags();
+        }
+
+        boolean matches(Spec spec) {
+            return spec.singleLine == singleLine && matches(spec.field, spec.paint, spec.width);
+        }
+    }
+
+    // a cached layout of an entry, linked from the most recently built.
+    static final class Record {
+        Spec spec;
+        CharSequence text;
+        StaticLayout layout;
+        Record next;
+    }
+
+    private final ArrayList<Spec> mSpecs = new ArrayList<Spec>();
+    private final Record[] mRecent = new Record[MAX_RECENT_LAYOUTS];
+    private int mRecentIndex;
+    // lookups from the views only, precompute does not count.
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    private TextLayoutCache() {
+    }
+
+    /**
+     * Register a spec, its layouts are then built whenever a notification
+     * is sent or updated. The views of the same spec share the registration,
+     * each call must be matched by {@link #removeSpec}.
+     *
+     * @param spec
+     */
+    public void addSpec(Spec spec) {
+        synchronized (mSpecs) {
+            for (int i = 0, size = mSpecs.size(); i < size; i++) {
+                final Spec s = mSpecs.get(i);
+                if (s.matches(spec)) {
+                    s.refs++;
+                    return;
+                }
+            }
+            if (DBG) Log.v(TAG, "addSpec - field=" + spec.field + ", width=" + spec.width);
+            spec.refs = 1;
+            mSpecs.add(spec);
+        }
+    }
+
+    /**
+     * Unregister a spec.
+     *
+     * @param spec
+     */
+    public void removeSpec(Spec spec) {
+        synchronized (mSpecs) {
+            for (int i = mSpecs.size() - 1; i >= 0; i--) {
+                final Spec s = mSpecs.get(i);
+                if (s.matches(spec)) {
+                    if (--s.refs == 0) {
+                        if (DBG) Log.v(TAG, "removeSpec - field=" + s.field + ", width=" + s.width);
+                        mSpecs.remove(i);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether any spec has been registered.
+     *
+     * @return boolean
+     */
+    public boolean hasSpecs() {
+        synchronized (mSpecs) {
+            return !mSpecs.isEmpty();
+        }
+    }
+
+    /**
+     * Get a cached layout of the current text of a field.
+     *
+     * @param entry
+     * @param spec
+     * @return StaticLayout, or null if not cached.
+     */
+    public StaticLayout get(NotificationEntry entry, Spec spec) {
+        if (getText(entry, spec.field) == null) {
+            return null;
+        }
+
+        return count(find(entry, spec));
+    }
+
+    /**
+     * Get a recent layout of a text.
+     *
+     * @param text
+     * @param spec
+     * @return StaticLayout, or null if not cached.
+     */
+    public StaticLayout get(CharSequence text, Spec spec) {
+        if (text == null) {
+            return null;
+        }
+
+        return count(findRecent(text, spec));
+    }
+
+    /**
+     * Get the layout of the current text of a field, build it now if not cached.
+     *
+     * @param entry
+     * @param spec
+     * @return StaticLayout, or null if the field has no text.
+     */
+    public StaticLayout obtain(NotificationEntry entry, Spec spec) {
+        StaticLayout layout = get(entry, spec);
+        if (layout == null) {
+            layout = build(entry, spec);
+        }
+        return layout;
+    }
+
+    /**
+     * Get the layout of a text, build it now if not cached.
+     *
+     * @param text
+     * @param spec
+     * @return StaticLayout, or null if the text is null.
+     */
+    public StaticLayout obtain(CharSequence text, Spec spec) {
+        StaticLayout layout = get(text, spec);
+        if (layout == null && text != null && spec.width > 0) {
+            layout = makeLayout(text, spec);
+            addRecent(spec, text, layout);
+        }
+        return layout;
+    }
+
+    private StaticLayout count(StaticLayout layout) {
+        if (layout != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return layout;
+    }
+
+    /**
+     * @return int number of layouts found in cache.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return int number of layouts not found in cache.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Build the layouts of all registered specs. Called on the thread of
+     * {@link NotificationHandler} whenever a notification is sent or updated.
+     *
+     * @param entry
+     */
+    void precompute(NotificationEntry entry) {
+        Spec[] specs;
+        synchronized (mSpecs) {
+            if (mSpecs.isEmpty()) {
+                return;
+            }
+            specs = mSpecs.toArray(new Spec[mSpecs.size()]);
+        }
+
+        for (int i = 0; i < specs.length; i++) {
+            if (find(entry, specs[i]) == null) {
+                build(entry, specs[i]);
+            }
+        }
+    }
+
+    private static StaticLayout find(NotificationEntry entry, Spec spec) {
+        final CharSequence text = getText(entry, spec.field);
+        if (text == null) {
+            return null;
+        }
+
+        synchronized (entry.mLock) {
+            for (Record r = entry.mTextLayouts; r != null; r = r.next) {
+                if (r.spec.matches(spec) && TextUtils.equals(r.text, text)) {
+                    return r.layout;
+                }
+            }
+        }
+        return null;
+    }
+
+    private StaticLayout findRecent(CharSequence text, Spec spec) {
+        synchronized (mRecent) {
+            for (int i = 0; i < MAX_RECENT_LAYOUTS; i++) {
+                final Record r = mRecent[i];
+                if (r != null && r.spec.matches(spec) && TextUtils.equals(r.text, text)) {
+                    return r.layout;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void addRecent(Spec spec, CharSequence text, StaticLayout layout) {
+        final Record record = new Record();
+        record.spec = spec;
+        record.text = text;
+        record.layout = layout;
+        synchronized (mRecent) {
+            mRecent[mRecentIndex] = record;
+            mRecentIndex = (mRecentIndex + 1) % MAX_RECENT_LAYOUTS;
+        }
+    }
+
+    private StaticLayout build(NotificationEntry entry, Spec spec) {
+        final CharSequence text = getText(entry, spec.field);
+        if (text == null || spec.width <= 0) {
+            return null;
+        }
+
+        final StaticLayout layout = makeLayout(text, spec);
+
+        if (DBG) Log.v(TAG, "build - " + entry.ID + ", field=" + spec.field +
+                       ", width=" + spec.width + ", lines=" + layout.getLineCount());
+
+        synchronized (entry.mLock) {
+            // drop the stale layouts of this spec, and the oldest ones over the limit.
+            Record prev = null;
+            int count = 1;
+            for (Record r = entry.mTextLayouts; r != null; r = r.next) {
+                if (r.spec.matches(spec) || count == MAX_LAYOUTS_PER_ENTRY) {
+                    if (prev == null) {
+                        entry.mTextLayouts = r.next;
+                    } else {
+                        prev.next = r.next;
+                    }
+                } else {
+                    prev = r;
+                    count++;
+                }
+            }
+
+            final Record record = new Record();
+            record.spec = spec;
+            record.text = text;
+            record.layout = layout;
+            record.next = entry.mTextLayouts;
+            entry.mTextLayouts = record;
+        }
+        addRecent(spec, text, layout);
+        return layout;
+    }
+
+    private static StaticLayout makeLayout(CharSequence text, Spec spec) {
+        final CharSequence display = spec.singleLine ?
+            TextUtils.ellipsize(text, spec.paint, spec.width, TextUtils.TruncateAt.END) : text;
+        return new StaticLayout(
+            display, spec.paint, spec.width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+    }
+
+    static CharSequence getText(NotificationEntry entry, int field) {
+        switch (field) {
+        case NotificationBinder.TITLE:
+            return entry.title;
+        case NotificationBinder.TEXT:
+            return entry.text;
+        case NotificationBinder.WHEN:
+            return entry.showWhen ? entry.whenFormatted : null;
+        default:
+            return null;
+        }
+    }
+}
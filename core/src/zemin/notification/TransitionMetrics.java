@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.os.Build;
+import android.util.Log;
+import android.view.Display;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Frame metrics of {@link NotificationView} transitions.
+ *
+ * While a transition is running, every frame is timed. When it ends, the number
+ * of frames, the dropped frames and the worst frame time are reported to the
+ * {@link Listener}, and aggregated into histograms which can be exported.
+ *
+ * SDK Ver. >= {@link android.os.Build.VERSION_CODES.JELLY_BEAN}.
+ *
+ * @see NotificationView#setTransitionMetricsEnabled
+ */
+public final class TransitionMetrics {
+
+    private static final String TAG = "zemin.TransitionMetrics";
+    public static boolean DBG;
+
+    public static final int SHOW      = 0;
+    public static final int SWITCH    = 1;
+    public static final int DISMISS   = 2;
+    public static final int DRAG_OUT  = 3;
+    public static final int TRANSITION_COUNT = 4;
+
+    private static final String[] NAMES = { "show", "switch", "dismiss", "drag-out" };
+
+    /**
+     * upper bounds (ms) of the frame time buckets. the last bucket has no bound.
+     */
+    public static final int[] FRAME_TIME_BUCKETS = { 17, 33, 50, 100, 250 };
+
+    /**
+     * upper bounds of the dropped frames buckets. the last bucket has no bound.
+     */
+    public static final int[] DROPPED_FRAMES_BUCKETS = { 0, 1, 3, 7, 15 };
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /**
+     * Get notified when a transition ends.
+     */
+    public interface Listener {
+
+        /**
+         * @param view
+         * @param transition {@link #SHOW}, {@link #SWITCH}, {@link #DISMISS} or {@link #DRAG_OUT}
+         * @param frames number of frames drawn
+         * @param droppedFrames number of frames missed
+         * @param worstFrameNanos the longest frame time
+         */
+        void onTransitionFrames(NotificationView view, int transition,
+                                int frames, int droppedFrames, long worstFrameNanos);
+    }
+
+    private final NotificationView mView;
+    private Listener mListener;
+    private FrameCallbackWrapper mFrameCallback;
+    // 0, until read from the display of the view.
+    private long mFrameIntervalNanos;
+
+    // current transition
+    private int mTransition = -1;
+    private long mLastFrameNanos;
+    private int mFrames;
+    private int mDroppedFrames;
+    private long mWorstFrameNanos;
+
+    // aggregated
+    private final int[] mCounts = new int[TRANSITION_COUNT];
+    private final long[] mTotalFrames = new long[TRANSITION_COUNT];
+    private final long[] mTotalDroppedFrames = new long[TRANSITION_COUNT];
+    private final long[] mWorstFrames = new long[TRANSITION_COUNT];
+    private final int[][] mFrameTimeHistograms =
+        new int[TRANSITION_COUNT][FRAME_TIME_BUCKETS.length + 1];
+    private final int[][] mDroppedFramesHistograms =
+        new int[TRANSITION_COUNT][DROPPED_FRAMES_BUCKETS.length + 1];
+
+    TransitionMetrics(NotificationView view) {
+        mView = view;
+    }
+
+    /**
+     * Whether frame metrics are supported on this device.
+     *
+     * @return boolean
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Set listener.
+     *
+     * @param l
+     */
+    public void setListener(Listener l) {
+        mListener = l;
+    }
+
+    /**
+     * Get the name of a transition.
+     *
+     * @param transition
+     * @return String
+     */
+    public static String getTransitionName(int transition) {
+        return NAMES[transition];
+    }
+
+    /**
+     * @param transition
+     * @return int number of transitions measured.
+     */
+    public int getTransitionCount(int transition) {
+        return mCounts[transition];
+    }
+
+    /**
+     * @param transition
+     * @return long number of frames drawn during all transitions.
+     */
+    public long getTotalFrames(int transition) {
+        return mTotalFrames[transition];
+    }
+
+    /**
+     * @param transition
+     * @return long number of frames dropped during all transitions.
+     */
+    public long getTotalDroppedFrames(int transition) {
+        return mTotalDroppedFrames[transition];
+    }
+
+    /**
+     * @param transition
+     * @return long the longest frame time, in nanoseconds.
+     */
+    public long getWorstFrameNanos(int transition) {
+        return mWorstFrames[transition];
+    }
+
+    /**
+     * Get a copy of the frame time histogram.
+     *
+     * @see #FRAME_TIME_BUCKETS
+     *
+     * @param transition
+     * @return int[]
+     */
+    public int[] getFrameTimeHistogram(int transition) {
+        return mFrameTimeHistograms[transition].clone();
+    }
+
+    /**
+     * Get a copy of the histogram of dropped frames per transition.
+     *
+     * @see #DROPPED_FRAMES_BUCKETS
+     *
+     * @param transition
+     * @return int[]
+     */
+    public int[] getDroppedFramesHistogram(int transition) {
+        return mDroppedFramesHistograms[transition].clone();
+    }
+
+    /**
+     * Clear the aggregated data.
+     */
+    public void reset() {
+        for (int i = 0; i < TRANSITION_COUNT; i++) {
+            mCounts[i] = 0;
+            mTotalFrames[i] = 0L;
+            mTotalDroppedFrames[i] = 0L;
+            mWorstFrames[i] = 0L;
+            Arrays.fill(mFrameTimeHistograms[i], 0);
+            Arrays.fill(mDroppedFramesHistograms[i], 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TRANSITION_COUNT; i++) {
+            sb.append(NAMES[i])
+                .append(": n=").append(mCounts[i])
+                .append(", frames=").append(mTotalFrames[i])
+                .append(", dropped=").append(mTotalDroppedFrames[i])
+                .append(", worst=").append(mWorstFrames[i] / 1000000L).append("ms")
+                .append(", frameTime=").append(Arrays.toString(mFrameTimeHistograms[i]))
+                .append(", droppedFrames=").append(Arrays.toString(mDroppedFramesHistograms[i]))
+                .append('\n');
+        }
+        return sb.toString();
+    }
+
+    void begin(int transition) {
+        if (!isSupported()) {
+            return;
+        }
+
+        if (mTransition != -1) {
+            end(mTransition);
+        }
+
+        if (mFrameCallback == null) {
+            mFrameCallback = new FrameCallbackWrapper(new FrameCallbackWrapper.Callback() {
+
+                    @Override
+                    public void onFrame(long frameTimeNanos) {
+                        TransitionMetrics.this.onFrame(frameTimeNanos);
+                    }
+                });
+        }
+
+        if (mFrameIntervalNanos == 0L) {
+            // the view may not be attached yet, then it is read again next time.
+            mFrameIntervalNanos = getFrameIntervalNanos(mView);
+        }
+
+        if (DBG) Log.v(TAG, "begin - " + NAMES[transition]);
+        mTransition = transition;
+        mLastFrameNanos = 0L;
+        mFrames = 0;
+        mDroppedFrames = 0;
+        mWorstFrameNanos = 0L;
+        mFrameCallback.post();
+    }
+
+    void end(int transition) {
+        if (mTransition != transition) {
+            return;
+        }
+
+        mFrameCallback.remove();
+        mTransition = -1;
+
+        mCounts[transition]++;
+        mTotalFrames[transition] += mFrames;
+        mTotalDroppedFrames[transition] += mDroppedFrames;
+        if (mWorstFrameNanos > mWorstFrames[transition]) {
+            mWorstFrames[transition] = mWorstFrameNanos;
+        }
+        mDroppedFramesHistograms[transition][
+            bucketOf(DROPPED_FRAMES_BUCKETS, mDroppedFrames)]++;
+
+        if (DBG) Log.v(TAG, "end - " + NAMES[transition] + ", frames=" + mFrames +
+                       ", dropped=" + mDroppedFrames + ", worst=" + mWorstFrameNanos);
+
+        if (mListener != null) {
+            mListener.onTransitionFrames(mView, transition, mFrames,
+                                         mDroppedFrames, mWorstFrameNanos);
+        }
+    }
+
+    void cancel() {
+        if (mTransition != -1) {
+            if (DBG) Log.v(TAG, "cancel - " + NAMES[mTransition]);
+            mFrameCallback.remove();
+            mTransition = -1;
+        }
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (mTransition == -1) {
+            return;
+        }
+
+        if (mLastFrameNanos != 0L) {
+            final long interval = mFrameIntervalNanos != 0L ?
+                mFrameIntervalNanos : DEFAULT_FRAME_INTERVAL_NANOS;
+            final long frameNanos = frameTimeNanos - mLastFrameNanos;
+            final int missed = (int) ((frameNanos - interval / 2) / interval);
+            mFrames++;
+            if (missed > 0) {
+                mDroppedFrames += missed;
+            }
+            if (frameNanos > mWorstFrameNanos) {
+                mWorstFrameNanos = frameNanos;
+            }
+            mFrameTimeHistograms[mTransition][
+                bucketOf(FRAME_TIME_BUCKETS, (int) (frameNanos / 1000000L))]++;
+        }
+
+        mLastFrameNanos = frameTimeNanos;
+        mFrameCallback.post();
+    }
+
+    private static int bucketOf(int[] buckets, int value) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (value <= buckets[i]) {
+                return i;
+            }
+        }
+        return buckets.length;
+    }
+
+    // 0, if the view has no display yet.
+    private static long getFrameIntervalNanos(View view) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            final Display display = view.getDisplay();
+            if (display != null && display.getRefreshRate() > 0.0f) {
+                return (long) (1000000000L / display.getRefreshRate());
+            }
+        }
+        return 0L;
+    }
+}
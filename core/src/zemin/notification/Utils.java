@@ -34,4 +34,22 @@ public class Utils {
                                           float posStart, float posEnd, float posOffset) {
         return alphaStart + posOffset * (alphaEnd - alphaStart) / (posEnd - posStart);
     }
+
+    /**
+     * Whether a method of the base class is overridden by the class of an object.
+     *
+     * @param obj
+     * @param base
+     * @param name
+     * @param parameterTypes
+     * @return boolean
+     */
+    public static boolean isOverridden(Object obj, Class<?> base, String name,
+                                       Class<?>... parameterTypes) {
+        try {
+            return obj.getClass().getMethod(name, parameterTypes).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 }
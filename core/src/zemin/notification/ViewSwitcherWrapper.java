@@ -17,9 +17,6 @@
 package zemin.notification;
 
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 import android.view.View;
 import android.view.animation.Animation;
 import android.widget.ImageSwitcher;
@@ -28,8 +25,6 @@ import android.widget.TextSwitcher;
 import android.widget.TextView;
 import android.widget.ViewSwitcher;
 
-import java.lang.ref.WeakReference;
-
 /**
  *
  */
@@ -93,6 +88,11 @@ public class ViewSwitcherWrapper extends ViewWrapper {
     @Override
     public void setView(View view) {
         super.setView(view);
+        if (view instanceof TextSwitcher) {
+            // size to the displayed text only, so that the switcher wraps the
+            // incoming text in the same layout pass as the switch.
+            ((TextSwitcher) view).setMeasureAllChildren(false);
+        }
         updateAnimation();
     }
 
@@ -126,14 +126,6 @@ public class ViewSwitcherWrapper extends ViewWrapper {
             TextView curr = (TextView) textSwitcher.getCurrentView();
             curr.setText(text);
         }
-
-        //
-        // waiting for the first layout of SWITCHER to be finished,
-        // so that we can adjust its size according to its content.
-        //
-        // 100 ms
-        //
-        schedule(MSG_TEXT_VIEW_ADJUST_HEIGHT,  100);
     }
 
     @Override
@@ -175,9 +167,6 @@ public class ViewSwitcherWrapper extends ViewWrapper {
             if (mInAnimation == null) {
                 mInAnimation = AnimationFactory.pushDownIn();
             }
-            if (viewSwitcher instanceof TextSwitcher) {
-                mInAnimation.setAnimationListener(mTextViewInAnimationListener);
-            }
             mInAnimation.setDuration(mInDuration);
             viewSwitcher.setInAnimation(mInAnimation);
         }
@@ -189,80 +178,4 @@ public class ViewSwitcherWrapper extends ViewWrapper {
             viewSwitcher.setOutAnimation(mOutAnimation);
         }
     }
-
-    // TODO: a better way to wrap content of TextView.
-    private void adjustTextViewHeight() {
-        View view = getView();
-        if (view == null) {
-            return;
-        }
-
-        TextSwitcher textSwitcher = (TextSwitcher) view;
-        TextView curr = (TextView) textSwitcher.getCurrentView();
-        TextView next = (TextView) textSwitcher.getNextView();
-        int currH = curr.getLineCount() * curr.getLineHeight();
-        int nextH = next.getLineCount() * next.getLineHeight();
-        if (currH != nextH) {
-            curr.setHeight(currH);
-            next.setHeight(currH);
-        }
-    }
-
-    private final AnimationListener mTextViewInAnimationListener = new AnimationListener() {
-
-            @Override
-            public void onAnimationStart(Animation animation) {
-                adjustTextViewHeight();
-            }
-        };
-
-    // ------------------------------------------------
-    // handler
-
-    private static final int MSG_TEXT_VIEW_ADJUST_HEIGHT = 0;
-
-    protected void handleMessage(Message msg) {
-        switch (msg.what) {
-        case MSG_TEXT_VIEW_ADJUST_HEIGHT:
-            adjustTextViewHeight();
-            break;
-        }
-    }
-
-    private H mH;
-
-    private void cancel(int what) {
-        final H h = getHandler();
-        if (what == -1)
-            h.removeCallbacksAndMessages(null);
-        else
-            h.removeMessages(what);
-    }
-
-    private void schedule(int what, int delay) {
-        final H h = getHandler();
-        h.removeMessages(what);
-        h.sendEmptyMessageDelayed(what, delay);
-    }
-
-    private void schedule(int what, int arg1, int arg2, Object obj, int delay) {
-        final H h = getHandler();
-        h.removeMessages(what);
-        h.sendMessageDelayed(h.obtainMessage(what, arg1, arg2, obj), delay);
-    }
-
-    public H getHandler() { if (mH == null) mH = new H(this); return mH; }
-
-    private static final class H extends Handler {
-        private WeakReference<ViewSwitcherWrapper> mView;
-        H(ViewSwitcherWrapper v) {
-            super(Looper.getMainLooper());
-            mView = new WeakReference<ViewSwitcherWrapper>(v);
-        }
-        @Override
-        public void handleMessage(Message msg) {
-            ViewSwitcherWrapper v = mView.get();
-            if (v != null) v.handleMessage(msg);
-        }
-    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.notification;
+
+import android.util.Log;
+import android.view.View;
+import android.view.animation.Animation;
+
+/**
+ * Show/hide transition of a view.
+ *
+ * {@link Property} animates the view properties with a hardware layer, enabled
+ * for the transition only. {@link Legacy} plays a {@link android.view.animation.Animation},
+ * so that the animations set by {@link NotificationView#setShowAnimation} and
+ * {@link NotificationView#setHideAnimation} keep working.
+ */
+abstract class ViewTransition {
+
+    private static final String TAG = "zemin.ViewTransition";
+    public static boolean DBG;
+
+    /**
+     * Get notified of the transition states.
+     */
+    interface Listener {
+
+        /**
+         * @param transition
+         */
+        void onTransitionStart(ViewTransition transition);
+
+        /**
+         * Called once, when the transition finishes or is ended early.
+         *
+         * @param transition
+         */
+        void onTransitionEnd(ViewTransition transition);
+    }
+
+    protected View mView;
+    private Listener mListener;
+    private int mDuration;
+    private boolean mRunning;
+
+    /**
+     * Set duration.
+     *
+     * @param ms
+     */
+    void setDuration(int ms) {
+        mDuration = ms;
+    }
+
+    /**
+     * @return int
+     */
+    int getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * @return boolean
+     */
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Start the transition on a view.
+     *
+     * @param view
+     * @param l
+     */
+    void start(View view, Listener l) {
+        if (mRunning) {
+            end();
+        }
+        mView = view;
+        mListener = l;
+        mRunning = true;
+        onStart(view, mDuration);
+    }
+
+    /**
+     * Jump to the end of the transition.
+     */
+    void end() {
+        if (mRunning) {
+            if (DBG) Log.v(TAG, "end early");
+            onEnd(mView);
+            dispatchEnd();
+        }
+    }
+
+    protected abstract void onStart(View view, int duration);
+
+    protected abstract void onEnd(View view);
+
+    protected void dispatchStart() {
+        if (mRunning && mListener != null) {
+            mListener.onTransitionStart(this);
+        }
+    }
+
+    protected void dispatchEnd() {
+        if (!mRunning) {
+            return;
+        }
+
+        // the listener may start another transition.
+        final Listener l = mListener;
+        mRunning = false;
+        mListener = null;
+        mView = null;
+        if (l != null) {
+            l.onTransitionEnd(this);
+        }
+    }
+
+    /**
+     * Animates the alpha and the y position of the view.
+     *
+     * No listener is attached to the property animator, which lets the
+     * RenderThread run it where available. The end of the transition is
+     * posted for its duration instead.
+     */
+    static final class Property extends ViewTransition {
+
+        private final float mFromAlpha;
+        private final float mToAlpha;
+        private final float mFromY;
+        private final float mToY;
+        private int mLayerType;
+
+        /**
+         * @param fromAlpha {@link Float#NaN} to start from the current value.
+         * @param toAlpha
+         * @param fromY {@link Float#NaN} to start from the current value.
+         * @param toY
+         */
+        Property(float fromAlpha, float toAlpha, float fromY, float toY) {
+            mFromAlpha = fromAlpha;
+            mToAlpha = toAlpha;
+            mFromY = fromY;
+            mToY = toY;
+        }
+
+        /**
+         * Push down animation for entering.
+         *
+         * @return Property
+         */
+        static Property pushDownIn() {
+            return new Property(0.0f, 1.0f, -100.0f, 0.0f);
+        }
+
+        /**
+         * Push up animation for leaving.
+         *
+         * @return Property
+         */
+        static Property pushUpOut() {
+            return new Property(Float.NaN, 0.0f, Float.NaN, -100.0f);
+        }
+
+        @Override
+        protected void onStart(View view, int duration) {
+            view.animate().cancel();
+            if (!Float.isNaN(mFromAlpha)) {
+                view.setAlpha(mFromAlpha);
+            }
+            if (!Float.isNaN(mFromY)) {
+                view.setTranslationY(mFromY);
+            }
+
+            mLayerType = view.getLayerType();
+            if (mLayerType != View.LAYER_TYPE_HARDWARE) {
+                view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            }
+
+            view.animate()
+                .alpha(mToAlpha)
+                .translationY(mToY)
+                .setListener(null)
+                .setStartDelay(0)
+                .setDuration(duration)
+                .start();
+
+            view.postDelayed(mEndRunnable, duration);
+            dispatchStart();
+        }
+
+        @Override
+        protected void onEnd(View view) {
+            view.removeCallbacks(mEndRunnable);
+            view.animate().cancel();
+            view.setAlpha(mToAlpha);
+            view.setTranslationY(mToY);
+            restoreLayerType(view);
+        }
+
+        private void restoreLayerType(View view) {
+            if (mLayerType != View.LAYER_TYPE_HARDWARE) {
+                view.setLayerType(mLayerType, null);
+            }
+        }
+
+        private final Runnable mEndRunnable = new Runnable() {
+
+                @Override
+                public void run() {
+                    if (isRunning()) {
+                        restoreLayerType(mView);
+                        dispatchEnd();
+                    }
+                }
+            };
+    }
+
+    /**
+     * Adapter of {@link android.view.animation.Animation}.
+     */
+    static final class Legacy extends ViewTransition implements Animation.AnimationListener {
+
+        private Animation mAnimation;
+
+        /**
+         * Set the animation to play. Its AnimationListener and duration will be replaced.
+         *
+         * @param anim
+         */
+        void setAnimation(Animation anim) {
+            mAnimation = anim;
+        }
+
+        @Override
+        protected void onStart(View view, int duration) {
+            mAnimation.setAnimationListener(this);
+            mAnimation.setDuration(duration);
+            view.startAnimation(mAnimation);
+        }
+
+        @Override
+        protected void onEnd(View view) {
+            mAnimation.setAnimationListener(null);
+            view.clearAnimation();
+        }
+
+        @Override
+        public void onAnimationStart(Animation animation) {
+            dispatchStart();
+        }
+
+        @Override
+        public void onAnimationEnd(Animation animation) {
+            animation.setAnimationListener(null);
+            dispatchEnd();
+        }
+
+        @Override
+        public void onAnimationRepeat(Animation animation) {
+        }
+    }
+}
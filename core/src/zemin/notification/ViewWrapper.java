@@ -84,19 +84,25 @@ public class ViewWrapper {
 
     // throws ClassCastException
     public void setText(CharSequence text, boolean animate) {
-        if (view != null) {
+        if (view instanceof NotificationTextView) {
+            ((NotificationTextView) view).setText(text);
+        } else if (view != null) {
             ((TextView) view).setText(text);
         }
     }
 
     public void setTextSize(int size) {
-        if (view != null) {
+        if (view instanceof NotificationTextView) {
+            ((NotificationTextView) view).setTextSize(size);
+        } else if (view != null) {
             ((TextView) view).setTextSize(size);
         }
     }
 
     public void setTextColor(int color) {
-        if (view != null) {
+        if (view instanceof NotificationTextView) {
+            ((NotificationTextView) view).setTextColor(color);
+        } else if (view != null) {
             ((TextView) view).setTextColor(color);
         }
     }